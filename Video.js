@@ -15,10 +15,32 @@ const styles = StyleSheet.create({
 });
 
 
-const downloadHlsAsset = async (id, hlsUrl, bitrate) => {
+// drm ({ licenseServer, headers }) makes Android keep an offline Widevine license with the download
+// and report its licenseState: 'none', 'acquiring', 'failed', 'missing', 'expired' or 'valid'.
+// Failed and missing licenses are requested again on startup and when the network comes back
+const downloadHlsAsset = async (id, hlsUrl, bitrate, drm) => {
+  if (drm && Platform.OS === 'android') {
+    return await NativeModules.AssetPersistenceManager.downloadStreams([{ id, hlsUrl, bitrate, drm }])
+  }
   return await NativeModules.AssetPersistenceManager.downloadStream(id, hlsUrl, bitrate)
 }
 
+// streams is an array of { id, hlsUrl, bitrate, type, drm }, type ('hls', 'dash', 'ss' or 'progressive') is inferred from the url when omitted
+const downloadHlsAssets = async (streams) => {
+  if (Platform.OS !== 'android') {
+    return await Promise.all(streams.map(({ id, hlsUrl, bitrate }) => downloadHlsAsset(id, hlsUrl, bitrate)))
+  }
+  return await NativeModules.AssetPersistenceManager.downloadStreams(streams)
+}
+
+// Resolves to { id, estimatedBytes, availableBytes, fits, metered }
+const estimateHlsAssetDownload = async (id, hlsUrl, bitrate) => {
+  if (Platform.OS !== 'android') {
+    return null
+  }
+  return await NativeModules.AssetPersistenceManager.estimateDownload(id, hlsUrl, bitrate)
+}
+
 const cancelHlsAssetDownload = async (id) => {
   return await NativeModules.AssetPersistenceManager.cancelDownload(id)
 }
@@ -27,8 +49,116 @@ const deleteHlsAsset = async (id) => {
   return await NativeModules.AssetPersistenceManager.deleteAsset(id)
 }
 
+const deleteHlsAssets = async (ids) => {
+  if (Platform.OS !== 'android') {
+    return await Promise.all(ids.map((id) => deleteHlsAsset(id)))
+  }
+  return await NativeModules.AssetPersistenceManager.deleteAssets(ids)
+}
+
+// policy is one of 'reject', 'evictLeastRecentlyPlayed' and 'evictOldestFinished'
+// options.freeSpaceMarginBytes is left free on the device (0 by default), options.unknownSizeBytes
+// is assumed for downloads whose size cannot be estimated (1 GB by default, 0 admits them unchecked)
+const setHlsStorageQuota = (quotaBytes, policy = 'reject', options = {}) => {
+  if (Platform.OS === 'android') {
+    NativeModules.AssetPersistenceManager.setStorageQuota(quotaBytes, policy, options)
+  }
+}
+
+// Controls which parts of a source URL must match a downloaded asset for offline playback,
+// e.g. { ignoredQueryParams: ['token', 'expires'] } for signed URLs
+const setHlsUrlMatchingPolicy = ({ ignoreQuery = false, ignoredQueryParams = [] } = {}) => {
+  if (Platform.OS === 'android') {
+    NativeModules.AssetPersistenceManager.setUrlMatchingPolicy(ignoreQuery, ignoredQueryParams)
+  }
+}
+
+// Resolves to { used, free, reserved, quota } in bytes
+const getHlsStorageInfo = async () => {
+  if (Platform.OS !== 'android') {
+    return null
+  }
+  return await NativeModules.AssetPersistenceManager.getStorageInfo()
+}
+
+const addHlsDownloadRejectedListener = (listener) => {
+  const subscription = eventEmitter.addListener("hlsDownloadRejected", listener);
+  return () => {
+    subscription.remove();
+  }
+}
+
+// Download scheduling is only available on Android
+const setHlsAssetPriority = async (id, priority) => {
+  if (Platform.OS !== 'android') {
+    return
+  }
+  return await NativeModules.AssetPersistenceManager.setPriority(id, priority)
+}
+
+const pauseHlsAssetDownload = async (id) => {
+  if (Platform.OS !== 'android') {
+    return
+  }
+  return await NativeModules.AssetPersistenceManager.pauseDownload(id)
+}
+
+const resumeHlsAssetDownload = async (id) => {
+  if (Platform.OS !== 'android') {
+    return
+  }
+  return await NativeModules.AssetPersistenceManager.resumeDownload(id)
+}
+
+const pauseAllHlsAssetDownloads = async () => {
+  if (Platform.OS !== 'android') {
+    return
+  }
+  return await NativeModules.AssetPersistenceManager.pauseAllDownloads()
+}
+
+const resumeAllHlsAssetDownloads = async () => {
+  if (Platform.OS !== 'android') {
+    return
+  }
+  return await NativeModules.AssetPersistenceManager.resumeAllDownloads()
+}
+
+// Latest state of every asset, kept up to date from hlsDownloadsDelta events on Android
+const hlsAssets = {};
+
 const getHlsAssets = async () => {
-  return await NativeModules.AssetPersistenceManager.getHLSAssetsForJS()
+  const assets = await NativeModules.AssetPersistenceManager.getHLSAssetsForJS()
+  if (Platform.OS === 'android') {
+    Object.keys(hlsAssets).forEach((id) => {
+      delete hlsAssets[id];
+    });
+    assets.forEach((asset) => {
+      hlsAssets[asset.id] = asset;
+    });
+  }
+  return assets
+}
+
+const setHlsDownloadConcurrency = (maxParallelDownloads, maxSegmentDownloadsPerAsset) => {
+  if (Platform.OS === 'android') {
+    NativeModules.AssetPersistenceManager.setDownloadConcurrency(maxParallelDownloads, maxSegmentDownloadsPerAsset)
+  }
+}
+
+const setHlsDownloadEventInterval = (intervalMs) => {
+  if (Platform.OS === 'android') {
+    NativeModules.AssetPersistenceManager.setDownloadEventInterval(intervalMs)
+  }
+}
+
+// Saved assets load in the background on Android, iOS has them ready immediately.
+// Rejects with ASSET_LOAD_FAILED when Android could not read them, getHlsAssets rejects too then
+const hlsAssetsReady = async () => {
+  if (Platform.OS !== 'android') {
+    return
+  }
+  return await NativeModules.AssetPersistenceManager.whenReady()
 }
 
 const hlsAssetListeners = [];
@@ -43,23 +173,116 @@ const addHlsAssetsListener = (listener) => {
 // AssetPersistenceEventEmitter is undefined on Android, which is fine
 const eventEmitter = new NativeEventEmitter(NativeModules.AssetPersistenceEventEmitter || NativeModules.AssetPersistenceManager);
 
+const hlsAssetDeltaListeners = [];
+
+const addHlsAssetsDeltaListener = (listener) => {
+  hlsAssetDeltaListeners.push(listener);
+  return () => {
+    hlsAssetDeltaListeners.splice(hlsAssetDeltaListeners.indexOf(listener), 1);
+  }
+}
+
+// Only iOS sends the full asset list, Android sends hlsDownloadsDelta below
 eventEmitter.addListener("hlsDownloads", (event) => {
   hlsAssetListeners.forEach((listener) => {
     listener(event);
   });
 });
 
+// Android only sends the assets and fields that changed, full listeners still get every asset
+eventEmitter.addListener("hlsDownloadsDelta", (delta) => {
+  delta.updated.forEach((asset) => {
+    hlsAssets[asset.id] = { ...hlsAssets[asset.id], ...asset };
+  });
+  delta.removed.forEach((id) => {
+    delete hlsAssets[id];
+  });
+  hlsAssetDeltaListeners.forEach((listener) => {
+    listener(delta);
+  });
+  if (hlsAssetListeners.length > 0) {
+    const assets = Object.values(hlsAssets);
+    hlsAssetListeners.forEach((listener) => {
+      listener(assets);
+    });
+  }
+});
+
+const preloadVideo = async (uri, options = {}) => {
+  return await NativeModules.VideoPreloader.preload(uri, options)
+}
+
+// options are { type, headers, drm: { type, licenseServer, headers, pssh } }, pssh (base64) saves the manifest request.
+// Resolves to the license expiry in ms since epoch, -1 if it does not expire
+const prefetchDrmLicense = async (uri, options) => {
+  if (Platform.OS !== 'android') {
+    return
+  }
+  return await NativeModules.VideoDecoderProperties.prefetchDrmLicense(uri, options)
+}
+
+const cancelVideoPreload = (uri) => {
+  NativeModules.VideoPreloader.cancel(uri)
+}
+
+const prewarmVideoConnections = (uris) => {
+  NativeModules.VideoPreloader.prewarmConnections(uris)
+}
+
+const getVideoPreloadStats = async () => {
+  return await NativeModules.VideoPreloader.getPreloadStats()
+}
+
+// Resolves to { hits, misses, evictions, idle } of the Android player pool
+const getPlayerPoolStats = async () => {
+  if (Platform.OS !== 'android') {
+    return
+  }
+  return await NativeModules.VideoPlayerPool.getStats()
+}
+
+const addVideoPreloadStatsListener = (listener) => {
+  const preloadEventEmitter = new NativeEventEmitter(NativeModules.VideoPreloader);
+  const subscription = preloadEventEmitter.addListener("videoPreloadStats", listener);
+  return () => {
+    subscription.remove();
+  }
+}
+
 const { VideoDecoderProperties } = NativeModules
 export { 
   TextTrackType,
   FilterType, 
   DRMType, 
   VideoDecoderProperties,
+  preloadVideo,
+  cancelVideoPreload,
+  prewarmVideoConnections,
+  prefetchDrmLicense,
+  getVideoPreloadStats,
+  getPlayerPoolStats,
+  addVideoPreloadStatsListener,
   downloadHlsAsset,
+  downloadHlsAssets,
+  estimateHlsAssetDownload,
   cancelHlsAssetDownload,
   deleteHlsAsset,
+  deleteHlsAssets,
+  setHlsAssetPriority,
+  pauseHlsAssetDownload,
+  resumeHlsAssetDownload,
+  pauseAllHlsAssetDownloads,
+  resumeAllHlsAssetDownloads,
   getHlsAssets,
-  addHlsAssetsListener 
+  hlsAssetsReady,
+  setHlsDownloadEventInterval,
+  setHlsDownloadConcurrency,
+  setHlsStorageQuota,
+  setHlsUrlMatchingPolicy,
+  getHlsStorageInfo,
+  addHlsDownloadRejectedListener,
+  addHlsAssetsListener,
+  addHlsAssetsDeltaListener 
 }
 
 export default class Video extends Component {
@@ -203,6 +426,24 @@ export default class Video extends Component {
     }
   };
 
+  _onPlaybackStats = (event) => {
+    if (this.props.onPlaybackStats) {
+      this.props.onPlaybackStats(event.nativeEvent);
+    }
+  };
+
+  _onBufferSizeChange = (event) => {
+    if (this.props.onBufferSizeChange) {
+      this.props.onBufferSizeChange(event.nativeEvent);
+    }
+  };
+
+  _onStartupMetrics = (event) => {
+    if (this.props.onStartupMetrics) {
+      this.props.onStartupMetrics(event.nativeEvent);
+    }
+  };
+
   _onSeek = (event) => {
     if (this.props.onSeek) {
       this.props.onSeek(event.nativeEvent);
@@ -344,7 +585,7 @@ export default class Video extends Component {
   render() {
     const resizeMode = this.props.resizeMode;
     const source = resolveAssetSource(this.props.source) || {};
-    const shouldCache = !source.__packager_asset;
+    const shouldCache = source.cache !== undefined ? !!source.cache : !source.__packager_asset;
 
     let uri = source.uri || '';
     if (uri && uri.match(/^\//)) {
@@ -403,6 +644,9 @@ export default class Video extends Component {
       onVideoEnd: this._onEnd,
       onVideoBuffer: this._onBuffer,
       onVideoBandwidthUpdate: this._onBandwidthUpdate,
+      onStartupMetrics: this._onStartupMetrics,
+      onPlaybackStats: this._onPlaybackStats,
+      onBufferSizeChange: this._onBufferSizeChange,
       onTimedMetadata: this._onTimedMetadata,
       onVideoAudioBecomingNoisy: this._onAudioBecomingNoisy,
       onVideoExternalPlaybackChange: this._onExternalPlaybackChange,
@@ -421,6 +665,11 @@ export default class Video extends Component {
       onRestoreUserInterfaceForPictureInPictureStop: this._onRestoreUserInterfaceForPictureInPictureStop,
     });
 
+    if (Platform.OS === 'android' && !this.props.onProgress) {
+      // Without a listener the native side can skip progress ticks altogether
+      nativeProps.progressUpdateInterval = 0;
+    }
+
     const posterStyle = {
       ...StyleSheet.absoluteFillObject,
       resizeMode: this.props.posterResizeMode || 'contain',
@@ -501,6 +750,7 @@ Video.propTypes = {
     base64Certificate: PropTypes.bool,
     certificateUrl: PropTypes.string,
     getLicense: PropTypes.func,
+    pssh: PropTypes.string,
   }),
   localSourceEncryptionKeyScheme: PropTypes.string,
   minLoadRetryCount: PropTypes.number,
@@ -561,6 +811,7 @@ Video.propTypes = {
   playWhenInactive: PropTypes.bool,
   ignoreSilentSwitch: PropTypes.oneOf(['ignore', 'obey']),
   reportBandwidth: PropTypes.bool,
+  playbackStatsInterval: PropTypes.number,
   contentStartTime: PropTypes.number,
   disableFocus: PropTypes.bool,
   focusable: PropTypes.bool,
@@ -591,6 +842,9 @@ Video.propTypes = {
   onError: PropTypes.func,
   onProgress: PropTypes.func,
   onBandwidthUpdate: PropTypes.func,
+  onStartupMetrics: PropTypes.func,
+  onPlaybackStats: PropTypes.func,
+  onBufferSizeChange: PropTypes.func,
   onSeek: PropTypes.func,
   onEnd: PropTypes.func,
   onFullscreenPlayerWillPresent: PropTypes.func,
@@ -0,0 +1,171 @@
+package com.brentvatne.exoplayer;
+
+import android.os.Looper;
+import android.util.Base64;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import androidx.media3.common.DrmInitData;
+import androidx.media3.common.Format;
+import com.google.android.exoplayer2.analytics.PlayerId;
+import com.google.android.exoplayer2.drm.DefaultDrmSessionManager;
+import com.google.android.exoplayer2.drm.DrmSession;
+import com.google.android.exoplayer2.drm.DrmSessionEventListener;
+import com.google.android.exoplayer2.drm.DrmSessionManager;
+import com.google.android.exoplayer2.drm.UnsupportedDrmException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Opens sessions with a license from {@link DrmLicenseCache} when one matches the content keys
+ * of the format, and with the online session manager otherwise. Each cached license gets its own
+ * session manager in playback mode, created on first use and bound to the same player.
+ * <p>
+ * When the init data is known before the manifest, a session for it is preacquired as soon as
+ * the media source prepares, so the license request runs while the manifest and first segments
+ * load. The session managers run in single session mode, the session acquired for the first
+ * track reuses the preacquired one.
+ */
+final class CachedLicenseDrmSessionManager implements DrmSessionManager {
+
+    private static final String TAG = "CachedLicenseDrm";
+
+    interface SessionManagerFactory {
+        @Nullable
+        DefaultDrmSessionManager create() throws UnsupportedDrmException;
+    }
+
+    private final DrmSessionManager onlineSessionManager;
+    private final UUID uuid;
+    @Nullable private final String licenseUrl;
+    @Nullable private final Map<String, String> licenseHeaders;
+    private final SessionManagerFactory sessionManagerFactory;
+    @Nullable private final DrmInitData preacquireDrmInitData;
+    @Nullable private DrmSessionReference preacquiredSession;
+    // Playback mode session managers by key set id
+    private final HashMap<String, DefaultDrmSessionManager> cachedLicenseSessionManagers = new HashMap<>();
+
+    private int prepareCount = 0;
+    @Nullable private Looper playbackLooper;
+    @Nullable private PlayerId playerId;
+
+    CachedLicenseDrmSessionManager(DrmSessionManager onlineSessionManager, UUID uuid,
+                                   @Nullable String licenseUrl, @Nullable Map<String, String> licenseHeaders,
+                                   @Nullable DrmInitData preacquireDrmInitData,
+                                   SessionManagerFactory sessionManagerFactory) {
+        this.onlineSessionManager = onlineSessionManager;
+        this.uuid = uuid;
+        this.licenseUrl = licenseUrl;
+        this.licenseHeaders = licenseHeaders;
+        this.sessionManagerFactory = sessionManagerFactory;
+        this.preacquireDrmInitData = preacquireDrmInitData;
+    }
+
+    @Override
+    public synchronized void prepare() {
+        onlineSessionManager.prepare();
+        if (prepareCount++ == 0) {
+            for (DrmSessionManager sessionManager : cachedLicenseSessionManagers.values()) {
+                sessionManager.prepare();
+            }
+            // Media sources prepare the session manager right before loading their manifest
+            if (preacquireDrmInitData != null && playbackLooper != null) {
+                Format format = new Format.Builder().setDrmInitData(preacquireDrmInitData).build();
+                preacquiredSession = getSessionManager(format).preacquireSession(null, format);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void release() {
+        if (prepareCount == 1) {
+            releasePreacquiredSession();
+        }
+        onlineSessionManager.release();
+        if (--prepareCount == 0) {
+            for (DrmSessionManager sessionManager : cachedLicenseSessionManagers.values()) {
+                sessionManager.release();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void setPlayer(Looper playbackLooper, PlayerId playerId) {
+        this.playbackLooper = playbackLooper;
+        this.playerId = playerId;
+        onlineSessionManager.setPlayer(playbackLooper, playerId);
+        for (DrmSessionManager sessionManager : cachedLicenseSessionManagers.values()) {
+            sessionManager.setPlayer(playbackLooper, playerId);
+        }
+    }
+
+    @Override
+    public synchronized DrmSessionReference preacquireSession(@Nullable DrmSessionEventListener.EventDispatcher eventDispatcher,
+                                                              Format format) {
+        return getSessionManager(format).preacquireSession(eventDispatcher, format);
+    }
+
+    @Nullable
+    @Override
+    public synchronized DrmSession acquireSession(@Nullable DrmSessionEventListener.EventDispatcher eventDispatcher,
+                                                  Format format) {
+        DrmSession session = getSessionManager(format).acquireSession(eventDispatcher, format);
+        // The acquired session holds the preacquired one now
+        releasePreacquiredSession();
+        return session;
+    }
+
+    /**
+     * Drops the cached licenses this manager opened sessions with, used when the DRM system
+     * rejected one of them. Licenses other players use stay cached.
+     */
+    synchronized void evictCachedLicenses() {
+        for (String keySetId : cachedLicenseSessionManagers.keySet()) {
+            DrmLicenseCache.remove(Base64.decode(keySetId, Base64.NO_WRAP));
+        }
+    }
+
+    @Override
+    public int getCryptoType(Format format) {
+        return onlineSessionManager.getCryptoType(format);
+    }
+
+    private void releasePreacquiredSession() {
+        if (preacquiredSession != null) {
+            preacquiredSession.release();
+            preacquiredSession = null;
+        }
+    }
+
+    private DrmSessionManager getSessionManager(Format format) {
+        byte[] keySetId = DrmLicenseCache.get(uuid, licenseUrl, licenseHeaders, format.drmInitData);
+        if (keySetId == null) {
+            return onlineSessionManager;
+        }
+        String key = Base64.encodeToString(keySetId, Base64.NO_WRAP);
+        DefaultDrmSessionManager sessionManager = cachedLicenseSessionManagers.get(key);
+        if (sessionManager != null) {
+            return sessionManager;
+        }
+        try {
+            sessionManager = sessionManagerFactory.create();
+        } catch (UnsupportedDrmException e) {
+            Log.w(TAG, "Cached license unusable, requesting a new one", e);
+        }
+        if (sessionManager == null) {
+            return onlineSessionManager;
+        }
+        sessionManager.setMode(DefaultDrmSessionManager.MODE_PLAYBACK, keySetId);
+        if (playbackLooper != null && playerId != null) {
+            sessionManager.setPlayer(playbackLooper, playerId);
+        }
+        if (prepareCount > 0) {
+            sessionManager.prepare();
+        }
+        cachedLicenseSessionManagers.put(key, sessionManager);
+        return sessionManager;
+    }
+}
@@ -0,0 +1,43 @@
+package com.brentvatne.exoplayer;
+
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.source.dash.manifest.DashManifest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small LRU of parsed DASH manifests keyed by source uri, so track info for a source that was
+ * already loaded doesn't need another manifest request. Dynamic (live) manifests are not kept
+ * since they go stale.
+ */
+final class DashManifestCache {
+
+    private static final int MAX_ENTRIES = 8;
+
+    private static final Map<Uri, DashManifest> manifests = new LinkedHashMap<Uri, DashManifest>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Uri, DashManifest> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private DashManifestCache() {
+    }
+
+    @Nullable
+    static synchronized DashManifest get(Uri uri) {
+        return manifests.get(uri);
+    }
+
+    static synchronized void put(Uri uri, DashManifest manifest) {
+        if (manifest.dynamic) {
+            manifests.remove(uri);
+            return;
+        }
+        manifests.put(uri, manifest);
+    }
+}
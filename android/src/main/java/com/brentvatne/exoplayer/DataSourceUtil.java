@@ -1,30 +1,68 @@
 package com.brentvatne.exoplayer;
 
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.modules.network.CookieJarContainer;
 import com.facebook.react.modules.network.ForwardingCookieHandler;
 import com.facebook.react.modules.network.OkHttpClientProvider;
+import com.google.android.exoplayer2.database.StandaloneDatabaseProvider;
 import com.google.android.exoplayer2.ext.okhttp.OkHttpDataSource;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer2.upstream.DefaultDataSource;
 import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
 import com.google.android.exoplayer2.util.Util;
 
 import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.JavaNetCookieJar;
 import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
 
 public class DataSourceUtil {
 
     private DataSourceUtil() {
     }
 
+    public static final long DEFAULT_STREAMING_CACHE_MAX_BYTES = 100 * 1024 * 1024;
+    private static final String STREAMING_CACHE_DIRECTORY = "RNVStreamingCache";
+    private static final int MAX_CACHED_FACTORIES = 16;
+    private static final long PREWARM_INTERVAL_MS = 30 * 1000;
+    private static final String TAG = "DataSourceUtil";
+
     private static DataSource.Factory rawDataSourceFactory = null;
     private static DataSource.Factory defaultDataSourceFactory = null;
     private static HttpDataSource.Factory defaultHttpDataSourceFactory = null;
     private static String userAgent = null;
+    private static Cache streamingCache = null;
+    private static OkHttpClient cookieJarClient = null;
+
+    // Factories built for a given header set and bandwidth meter, least recently used first
+    private static final Map<FactoryKey, DataSource.Factory> dataSourceFactories = new BoundedFactoryMap<>();
+    private static final Map<FactoryKey, HttpDataSource.Factory> httpDataSourceFactories = new BoundedFactoryMap<>();
+    private static final Map<String, Long> prewarmedOrigins = new HashMap<>();
 
     public static void setUserAgent(String userAgent) {
         DataSourceUtil.userAgent = userAgent;
@@ -49,42 +87,165 @@ public class DataSourceUtil {
     }
 
 
+    /**
+     * Returns a factory for the given headers and bandwidth meter, reusing a previously built one
+     * when possible. A factory set through {@link #setDefaultDataSourceFactory} is used for
+     * requests without headers.
+     */
     public static DataSource.Factory getDefaultDataSourceFactory(ReactContext context, DefaultBandwidthMeter bandwidthMeter, Map<String, String> requestHeaders) {
-        if (defaultDataSourceFactory == null || (requestHeaders != null && !requestHeaders.isEmpty())) {
-            defaultDataSourceFactory = buildDataSourceFactory(context, bandwidthMeter, requestHeaders);
+        return getDefaultDataSourceFactory(context, null, bandwidthMeter, requestHeaders);
+    }
+
+    /**
+     * Same as {@link #getDefaultDataSourceFactory(ReactContext, DefaultBandwidthMeter, Map)} but
+     * loads over the given client, or React Native's shared client when it is null.
+     */
+    public static synchronized DataSource.Factory getDefaultDataSourceFactory(ReactContext context, @Nullable OkHttpClient client, DefaultBandwidthMeter bandwidthMeter, Map<String, String> requestHeaders) {
+        if (defaultDataSourceFactory != null && client == null && (requestHeaders == null || requestHeaders.isEmpty())) {
+            return defaultDataSourceFactory;
+        }
+        // Keyed on the client actually used, so a replaced shared client gets new factories
+        FactoryKey key = new FactoryKey(resolveHttpClient(context, client), bandwidthMeter, requestHeaders);
+        DataSource.Factory factory = dataSourceFactories.get(key);
+        if (factory == null) {
+            // Cached factories outlive the view, so they must not hold on to its context
+            factory = new DefaultDataSource.Factory(context.getApplicationContext(),
+                    getDefaultHttpDataSourceFactory(context, client, bandwidthMeter, key.requestHeaders));
+            dataSourceFactories.put(key, factory);
         }
-        return defaultDataSourceFactory;
+        return factory;
     }
 
-    public static void setDefaultDataSourceFactory(DataSource.Factory factory) {
+    public static synchronized void setDefaultDataSourceFactory(DataSource.Factory factory) {
         DataSourceUtil.defaultDataSourceFactory = factory;
     }
 
     public static HttpDataSource.Factory getDefaultHttpDataSourceFactory(ReactContext context, DefaultBandwidthMeter bandwidthMeter, Map<String, String> requestHeaders) {
-        if (defaultHttpDataSourceFactory == null || (requestHeaders != null && !requestHeaders.isEmpty())) {
-            defaultHttpDataSourceFactory = buildHttpDataSourceFactory(context, bandwidthMeter, requestHeaders);
+        return getDefaultHttpDataSourceFactory(context, null, bandwidthMeter, requestHeaders);
+    }
+
+    public static synchronized HttpDataSource.Factory getDefaultHttpDataSourceFactory(ReactContext context, @Nullable OkHttpClient client, DefaultBandwidthMeter bandwidthMeter, Map<String, String> requestHeaders) {
+        if (defaultHttpDataSourceFactory != null && client == null && (requestHeaders == null || requestHeaders.isEmpty())) {
+            return defaultHttpDataSourceFactory;
+        }
+        FactoryKey key = new FactoryKey(resolveHttpClient(context, client), bandwidthMeter, requestHeaders);
+        HttpDataSource.Factory factory = httpDataSourceFactories.get(key);
+        if (factory == null) {
+            factory = buildHttpDataSourceFactory(context, key.client, bandwidthMeter, key.requestHeaders);
+            httpDataSourceFactories.put(key, factory);
         }
-        return defaultHttpDataSourceFactory;
+        return factory;
     }
 
-    public static void setDefaultHttpDataSourceFactory(HttpDataSource.Factory factory) {
+    public static synchronized void setDefaultHttpDataSourceFactory(HttpDataSource.Factory factory) {
         DataSourceUtil.defaultHttpDataSourceFactory = factory;
     }
 
+    /**
+     * Drops all factories built for specific header sets, e.g. after the shared client changed.
+     */
+    public static synchronized void clearDataSourceFactories() {
+        dataSourceFactories.clear();
+        httpDataSourceFactories.clear();
+    }
+
+    /**
+     * Returns the process-wide LRU cache used for streaming playback.
+     * SimpleCache allows a single instance per directory, so the size cap of the first call wins.
+     */
+    public static synchronized Cache getStreamingCache(Context context, long maxBytes) {
+        if (streamingCache == null) {
+            File cacheDirectory = new File(context.getApplicationContext().getCacheDir(), STREAMING_CACHE_DIRECTORY);
+            streamingCache = new SimpleCache(
+                    cacheDirectory,
+                    new LeastRecentlyUsedCacheEvictor(maxBytes),
+                    new StandaloneDatabaseProvider(context.getApplicationContext())
+            );
+        }
+        return streamingCache;
+    }
+
+    public static synchronized void setStreamingCache(Cache cache) {
+        DataSourceUtil.streamingCache = cache;
+    }
+
+    /**
+     * Wraps the given upstream factory so that reads are served from the streaming cache and
+     * network reads are written through to it.
+     */
+    public static CacheDataSource.Factory getStreamingCacheDataSourceFactory(Context context, long maxBytes, DataSource.Factory upstreamFactory) {
+        return new CacheDataSource.Factory()
+                .setCache(getStreamingCache(context, maxBytes))
+                .setUpstreamDataSourceFactory(upstreamFactory)
+                .setFlags(CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR);
+    }
+
     private static DataSource.Factory buildRawDataSourceFactory(ReactContext context) {
         return new RawResourceDataSourceFactory(context.getApplicationContext());
     }
 
-    private static DataSource.Factory buildDataSourceFactory(ReactContext context, DefaultBandwidthMeter bandwidthMeter, Map<String, String> requestHeaders) {
-        return new DefaultDataSource.Factory(context,
-                buildHttpDataSourceFactory(context, bandwidthMeter, requestHeaders));
+    /**
+     * Opens connections to the hosts of the given uris ahead of playback so that the first
+     * manifest request skips DNS, TCP and TLS setup. Hosts warmed up recently are skipped.
+     */
+    public static void prewarmConnections(ReactContext context, @Nullable OkHttpClient client, List<Uri> uris) {
+        OkHttpClient httpClient = resolveHttpClient(context, client);
+        long now = SystemClock.elapsedRealtime();
+        for (Uri uri : uris) {
+            String scheme = uri.getScheme();
+            if (uri.getHost() == null
+                    || !("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme))) {
+                continue;
+            }
+            String origin = scheme.toLowerCase(Locale.US) + "://" + uri.getEncodedAuthority();
+            synchronized (prewarmedOrigins) {
+                Long prewarmedAt = prewarmedOrigins.get(origin);
+                if (prewarmedAt != null && now - prewarmedAt < PREWARM_INTERVAL_MS) {
+                    continue;
+                }
+                prewarmedOrigins.put(origin, now);
+            }
+            Request request = new Request.Builder()
+                    .url(origin + "/")
+                    .head()
+                    .header("User-Agent", getUserAgent(context))
+                    .build();
+            httpClient.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                    Log.d(TAG, "Failed to prewarm connection to " + origin, e);
+                }
+
+                @Override
+                public void onResponse(@NonNull Call call, @NonNull Response response) {
+                    // The connection stays in the client's pool, only the response is discarded
+                    response.close();
+                }
+            });
+        }
+    }
+
+    private static synchronized OkHttpClient resolveHttpClient(ReactContext context, @Nullable OkHttpClient client) {
+        if (client != null) {
+            return client;
+        }
+        OkHttpClient sharedClient = OkHttpClientProvider.getOkHttpClient();
+        if (sharedClient != cookieJarClient) {
+            // Install the cookie jar once per client rather than for every factory
+            CookieJarContainer container = (CookieJarContainer) sharedClient.cookieJar();
+            ForwardingCookieHandler handler = new ForwardingCookieHandler(context);
+            container.setCookieJar(new JavaNetCookieJar(handler));
+            if (cookieJarClient != null) {
+                // Factories built over the replaced client would keep loading through it
+                clearDataSourceFactories();
+            }
+            cookieJarClient = sharedClient;
+        }
+        return sharedClient;
     }
 
-    private static HttpDataSource.Factory buildHttpDataSourceFactory(ReactContext context, DefaultBandwidthMeter bandwidthMeter, Map<String, String> requestHeaders) {
-        OkHttpClient client = OkHttpClientProvider.getOkHttpClient();
-        CookieJarContainer container = (CookieJarContainer) client.cookieJar();
-        ForwardingCookieHandler handler = new ForwardingCookieHandler(context);
-        container.setCookieJar(new JavaNetCookieJar(handler));
+    private static HttpDataSource.Factory buildHttpDataSourceFactory(ReactContext context, @Nullable OkHttpClient mediaClient, DefaultBandwidthMeter bandwidthMeter, Map<String, String> requestHeaders) {
+        OkHttpClient client = resolveHttpClient(context, mediaClient);
         OkHttpDataSource.Factory okHttpDataSourceFactory = new OkHttpDataSource.Factory((Call.Factory) client)
                 .setUserAgent(getUserAgent(context))
                 .setTransferListener(bandwidthMeter);
@@ -94,4 +255,65 @@ public class DataSourceUtil {
 
         return okHttpDataSourceFactory;
     }
+
+    /**
+     * Returns a sorted copy of the given headers with lower case names, for comparing header sets.
+     * Header names are case insensitive, so the copy compares and hashes the same for headers
+     * that only differ in case.
+     */
+    static Map<String, String> normalizeHeaders(@Nullable Map<String, String> headers) {
+        TreeMap<String, String> normalized = new TreeMap<>();
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                normalized.put(header.getKey().toLowerCase(Locale.US), header.getValue());
+            }
+        }
+        return Collections.unmodifiableMap(normalized);
+    }
+
+    private static final class FactoryKey {
+        private final OkHttpClient client;
+        private final DefaultBandwidthMeter bandwidthMeter;
+        // Headers sent by the factory built for this key
+        private final Map<String, String> requestHeaders;
+        private final Map<String, String> normalizedHeaders;
+
+        FactoryKey(OkHttpClient client, DefaultBandwidthMeter bandwidthMeter, Map<String, String> requestHeaders) {
+            this.client = client;
+            this.bandwidthMeter = bandwidthMeter;
+            // Copies so that header order and later mutations of the caller's map don't matter
+            this.requestHeaders = requestHeaders == null
+                    ? Collections.emptyMap()
+                    : Collections.unmodifiableMap(new TreeMap<>(requestHeaders));
+            this.normalizedHeaders = normalizeHeaders(requestHeaders);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof FactoryKey)) return false;
+            FactoryKey key = (FactoryKey) o;
+            return client == key.client
+                    && bandwidthMeter == key.bandwidthMeter
+                    && normalizedHeaders.equals(key.normalizedHeaders);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(client);
+            result = 31 * result + System.identityHashCode(bandwidthMeter);
+            return 31 * result + normalizedHeaders.hashCode();
+        }
+    }
+
+    private static final class BoundedFactoryMap<V> extends LinkedHashMap<FactoryKey, V> {
+        BoundedFactoryMap() {
+            super(MAX_CACHED_FACTORIES, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<FactoryKey, V> eldest) {
+            return size() > MAX_CACHED_FACTORIES;
+        }
+    }
 }
@@ -2,14 +2,24 @@ package com.brentvatne.exoplayer;
 
 import android.content.Context;
 
+import androidx.annotation.Nullable;
+
 import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer2.upstream.DefaultLoadErrorHandlingPolicy;
 import com.google.android.exoplayer2.upstream.LoadErrorHandlingPolicy;
 
+import okhttp3.OkHttpClient;
+
 public class DefaultReactExoplayerConfig implements ReactExoplayerConfig {
 
     private final DefaultBandwidthMeter bandwidthMeter;
     private boolean disableDisconnectError = false;
+    private long streamingCacheMaxBytes = DataSourceUtil.DEFAULT_STREAMING_CACHE_MAX_BYTES;
+    private int playerPoolSize = 2;
+    private OkHttpClient mediaHttpClient = null;
+    private VideoTaskExecutor taskExecutor = null;
+    private int maxParallelDownloads = 1;
+    private int maxSegmentDownloadsPerAsset = 6;
 
     public DefaultReactExoplayerConfig(Context context) {
         this.bandwidthMeter = new DefaultBandwidthMeter.Builder(context).build();
@@ -35,4 +45,53 @@ public class DefaultReactExoplayerConfig implements ReactExoplayerConfig {
     public DefaultBandwidthMeter getBandwidthMeter() {
         return bandwidthMeter;
     }
+
+    public void setStreamingCacheMaxBytes(long streamingCacheMaxBytes) {
+        this.streamingCacheMaxBytes = streamingCacheMaxBytes;
+    }
+
+    public long getStreamingCacheMaxBytes() {
+        return this.streamingCacheMaxBytes;
+    }
+
+    public void setPlayerPoolSize(int playerPoolSize) {
+        this.playerPoolSize = playerPoolSize;
+    }
+
+    public int getPlayerPoolSize() {
+        return this.playerPoolSize;
+    }
+
+    public void setMediaHttpClient(@Nullable OkHttpClient mediaHttpClient) {
+        this.mediaHttpClient = mediaHttpClient;
+    }
+
+    @Nullable
+    public OkHttpClient getMediaHttpClient() {
+        return this.mediaHttpClient;
+    }
+
+    public void setTaskExecutor(VideoTaskExecutor taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
+
+    public VideoTaskExecutor getTaskExecutor() {
+        return taskExecutor != null ? taskExecutor : VideoTaskExecutor.getShared();
+    }
+
+    public void setMaxParallelDownloads(int maxParallelDownloads) {
+        this.maxParallelDownloads = maxParallelDownloads;
+    }
+
+    public int getMaxParallelDownloads() {
+        return this.maxParallelDownloads;
+    }
+
+    public void setMaxSegmentDownloadsPerAsset(int maxSegmentDownloadsPerAsset) {
+        this.maxSegmentDownloadsPerAsset = maxSegmentDownloadsPerAsset;
+    }
+
+    public int getMaxSegmentDownloadsPerAsset() {
+        return this.maxSegmentDownloadsPerAsset;
+    }
 }
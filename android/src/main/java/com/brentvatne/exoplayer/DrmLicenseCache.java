@@ -0,0 +1,352 @@
+package com.brentvatne.exoplayer;
+
+import static androidx.media3.common.C.CONTENT_TYPE_DASH;
+import static androidx.media3.common.C.CONTENT_TYPE_HLS;
+
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Base64;
+import android.util.Log;
+import android.util.Pair;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReactContext;
+import androidx.media3.common.C;
+import androidx.media3.common.DrmInitData;
+import androidx.media3.common.Format;
+import androidx.media3.common.MimeTypes;
+import com.google.android.exoplayer2.drm.DefaultDrmSessionManager;
+import com.google.android.exoplayer2.drm.DrmSessionEventListener;
+import com.google.android.exoplayer2.drm.FrameworkMediaDrm;
+import com.google.android.exoplayer2.drm.HttpMediaDrmCallback;
+import com.google.android.exoplayer2.drm.OfflineLicenseHelper;
+import com.google.android.exoplayer2.source.dash.DashUtil;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifest;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMultivariantPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylistParser;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.ParsingLoadable;
+import com.google.android.exoplayer2.util.Util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Process wide cache of DRM licenses, so that a source whose content keys are already licensed
+ * starts without a license request. Licenses are fetched ahead of playback by {@link #prefetch}
+ * as persistent licenses and kept until shortly before they expire. Entries are keyed by DRM
+ * scheme, license url, license request headers and the scheme's init data, which carries the
+ * content key ids: a title opened again, or an episode sharing its keys, finds the license.
+ * Licenses that leave the cache are released in the background.
+ */
+public final class DrmLicenseCache {
+
+    private static final String TAG = "DrmLicenseCache";
+    private static final int MAX_ENTRIES = 32;
+    private static final int MAX_PARALLEL_PREFETCHES = 2;
+    private static final int MAX_QUEUED_PREFETCHES = 16;
+    // Licenses this close to their expiry are not handed out, playback would outlive them
+    private static final long EXPIRY_MARGIN_MS = 60 * 1000;
+
+    private static final VideoTaskExecutor executor = new VideoTaskExecutor(
+            TAG, MAX_PARALLEL_PREFETCHES, MAX_QUEUED_PREFETCHES, Thread.MIN_PRIORITY);
+    // Releases must not be dropped when the prefetch queue is full
+    private static final VideoTaskExecutor releaseExecutor = new VideoTaskExecutor(
+            TAG + "Release", 1, VideoTaskExecutor.UNBOUNDED_QUEUE, Thread.MIN_PRIORITY);
+
+    private static final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            if (size() <= MAX_ENTRIES) {
+                return false;
+            }
+            release(eldest.getKey(), eldest.getValue());
+            return true;
+        }
+    };
+
+    private DrmLicenseCache() {
+    }
+
+    public interface PrefetchCallback {
+        /**
+         * @param expiresAtMs Wall clock expiry of the license, Long.MAX_VALUE if it does not expire
+         */
+        void onPrefetched(long expiresAtMs);
+
+        void onError(Exception e);
+    }
+
+    private static final class Key {
+        final UUID uuid;
+        final String licenseUrl;
+        final Map<String, String> headers;
+        final String initData;
+
+        Key(UUID uuid, String licenseUrl, @Nullable Map<String, String> headers, String initData) {
+            this.uuid = uuid;
+            this.licenseUrl = licenseUrl;
+            // Header order and the case of header names do not change the license
+            this.headers = DataSourceUtil.normalizeHeaders(headers);
+            this.initData = initData;
+        }
+
+        @Nullable
+        static Key of(UUID uuid, @Nullable String licenseUrl, @Nullable Map<String, String> headers,
+                      @Nullable DrmInitData drmInitData) {
+            if (licenseUrl == null || drmInitData == null) {
+                return null;
+            }
+            for (int i = 0; i < drmInitData.schemeDataCount; i++) {
+                DrmInitData.SchemeData schemeData = drmInitData.get(i);
+                if (schemeData.matches(uuid) && schemeData.hasData()) {
+                    return new Key(uuid, licenseUrl, headers,
+                            Base64.encodeToString(schemeData.data, Base64.NO_WRAP));
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return uuid.equals(key.uuid)
+                    && licenseUrl.equals(key.licenseUrl)
+                    && headers.equals(key.headers)
+                    && initData.equals(key.initData);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(uuid, licenseUrl, headers, initData);
+        }
+    }
+
+    private static final class Entry {
+        final byte[] keySetId;
+        final long expiresAtMs;
+        // Sends the release request of the license
+        final HttpDataSource.Factory dataSourceFactory;
+
+        Entry(byte[] keySetId, long expiresAtMs, HttpDataSource.Factory dataSourceFactory) {
+            this.keySetId = keySetId;
+            this.expiresAtMs = expiresAtMs;
+            this.dataSourceFactory = dataSourceFactory;
+        }
+
+        boolean isValid() {
+            return expiresAtMs == Long.MAX_VALUE
+                    || expiresAtMs - EXPIRY_MARGIN_MS > System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return Key set id of a cached, unexpired license for the content keys in the init data
+     */
+    @Nullable
+    static byte[] get(UUID uuid, @Nullable String licenseUrl, @Nullable Map<String, String> headers,
+                      @Nullable DrmInitData drmInitData) {
+        Key key = Key.of(uuid, licenseUrl, headers, drmInitData);
+        if (key == null) {
+            return null;
+        }
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (!entry.isValid()) {
+                entries.remove(key);
+                release(key, entry);
+                return null;
+            }
+            return entry.keySetId;
+        }
+    }
+
+    /**
+     * Drops the cached license with the key set id, used when the DRM system rejected it.
+     */
+    static void remove(byte[] keySetId) {
+        synchronized (entries) {
+            Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Key, Entry> cached = iterator.next();
+                if (Arrays.equals(cached.getValue().keySetId, keySetId)) {
+                    iterator.remove();
+                    release(cached.getKey(), cached.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Fetches and caches the license of an upcoming source in the background. The init data is
+     * read from the manifest unless given as pssh, which saves the manifest request.
+     * The callback runs on a background thread.
+     *
+     * @throws RejectedExecutionException when the prefetch queue is full
+     */
+    public static void prefetch(ReactContext context, ReactExoplayerConfig config, String uriString,
+                                @Nullable String extension, UUID uuid, String licenseUrl,
+                                @Nullable Map<String, String> licenseHeaders, @Nullable byte[] pssh,
+                                @Nullable Map<String, String> requestHeaders, PrefetchCallback callback) {
+        DataSource.Factory manifestDataSourceFactory = DataSourceUtil.getDefaultDataSourceFactory(context,
+                config.getMediaHttpClient(), null, requestHeaders);
+        // The license headers are set on the license requests, the media headers are not sent there
+        HttpDataSource.Factory licenseDataSourceFactory = DataSourceUtil.getDefaultHttpDataSourceFactory(context,
+                config.getMediaHttpClient(), null, null);
+        executor.execute(VideoTaskExecutor.PRIORITY_LOW, () -> {
+            try {
+                DrmInitData drmInitData = pssh != null
+                        ? new DrmInitData(new DrmInitData.SchemeData(uuid, MimeTypes.VIDEO_MP4, pssh))
+                        : loadDrmInitData(Uri.parse(uriString), extension, manifestDataSourceFactory);
+                Key key = Key.of(uuid, licenseUrl, licenseHeaders, drmInitData);
+                if (key == null) {
+                    throw new IllegalStateException("No DRM init data for scheme " + uuid + " in " + uriString);
+                }
+                synchronized (entries) {
+                    Entry entry = entries.get(key);
+                    if (entry != null && entry.isValid()) {
+                        callback.onPrefetched(entry.expiresAtMs);
+                        return;
+                    }
+                }
+                Entry entry = downloadLicense(uuid, licenseUrl, licenseHeaders, drmInitData, licenseDataSourceFactory);
+                synchronized (entries) {
+                    Entry previousEntry = entries.put(key, entry);
+                    if (previousEntry != null) {
+                        release(key, previousEntry);
+                    }
+                }
+                callback.onPrefetched(entry.expiresAtMs);
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to prefetch license of " + uriString, e);
+                callback.onError(e);
+            }
+        });
+    }
+
+    private static Entry downloadLicense(UUID uuid, String licenseUrl, @Nullable Map<String, String> headers,
+                                         DrmInitData drmInitData, HttpDataSource.Factory dataSourceFactory)
+            throws Exception {
+        OfflineLicenseHelper helper = newHelper(uuid, licenseUrl, headers, dataSourceFactory);
+        try {
+            byte[] keySetId = helper.downloadLicense(new Format.Builder().setDrmInitData(drmInitData).build());
+            Pair<Long, Long> remainingSec = helper.getLicenseDurationRemainingSec(keySetId);
+            long expiresAtMs = remainingSec.first == Long.MAX_VALUE
+                    ? Long.MAX_VALUE
+                    : System.currentTimeMillis() + remainingSec.first * 1000;
+            return new Entry(keySetId, expiresAtMs, dataSourceFactory);
+        } finally {
+            helper.release();
+        }
+    }
+
+    private static void release(Key key, Entry entry) {
+        releaseExecutor.execute(VideoTaskExecutor.PRIORITY_LOW, () -> {
+            OfflineLicenseHelper helper = newHelper(key.uuid, key.licenseUrl, key.headers, entry.dataSourceFactory);
+            try {
+                helper.releaseLicense(entry.keySetId);
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to release cached license", e);
+            } finally {
+                helper.release();
+            }
+        });
+    }
+
+    private static OfflineLicenseHelper newHelper(UUID uuid, String licenseUrl, @Nullable Map<String, String> headers,
+                                                  HttpDataSource.Factory dataSourceFactory) {
+        HttpMediaDrmCallback drmCallback = new HttpMediaDrmCallback(licenseUrl, dataSourceFactory);
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                drmCallback.setKeyRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+        DefaultDrmSessionManager sessionManager = new DefaultDrmSessionManager.Builder()
+                .setUuidAndExoMediaDrmProvider(uuid, FrameworkMediaDrm.DEFAULT_PROVIDER)
+                .build(drmCallback);
+        return new OfflineLicenseHelper(sessionManager, new DrmSessionEventListener.EventDispatcher());
+    }
+
+    @Nullable
+    private static DrmInitData loadDrmInitData(Uri uri, @Nullable String extension,
+                                               DataSource.Factory dataSourceFactory) throws IOException {
+        int type = Util.inferContentType(!TextUtils.isEmpty(extension) ? "." + extension
+                : uri.getLastPathSegment());
+        DataSource dataSource = dataSourceFactory.createDataSource();
+        switch (type) {
+            case CONTENT_TYPE_DASH: {
+                DashManifest manifest = DashUtil.loadManifest(dataSource, uri);
+                if (manifest.getPeriodCount() == 0) {
+                    return null;
+                }
+                Format format = DashUtil.loadFormatWithDrmInitData(dataSource, manifest.getPeriod(0));
+                return format != null ? format.drmInitData : null;
+            }
+            case CONTENT_TYPE_HLS: {
+                HlsPlaylist playlist = ParsingLoadable.load(dataSource, new HlsPlaylistParser(), uri, C.DATA_TYPE_MANIFEST);
+                if (playlist instanceof HlsMediaPlaylist) {
+                    return getHlsDrmInitData((HlsMediaPlaylist) playlist);
+                }
+                HlsMultivariantPlaylist multivariantPlaylist = (HlsMultivariantPlaylist) playlist;
+                if (!multivariantPlaylist.sessionKeyDrmInitData.isEmpty()) {
+                    return multivariantPlaylist.sessionKeyDrmInitData.get(0);
+                }
+                if (multivariantPlaylist.variants.isEmpty()) {
+                    return null;
+                }
+                HlsPlaylist mediaPlaylist = ParsingLoadable.load(dataSource,
+                        new HlsPlaylistParser(multivariantPlaylist, null),
+                        multivariantPlaylist.variants.get(0).url, C.DATA_TYPE_MANIFEST);
+                return getHlsDrmInitData((HlsMediaPlaylist) mediaPlaylist);
+            }
+            default:
+                throw new IllegalArgumentException("Content type " + type + " needs the pssh to prefetch its license");
+        }
+    }
+
+    @Nullable
+    private static DrmInitData getHlsDrmInitData(HlsMediaPlaylist playlist) {
+        // Playlist level protection schemes have their data stripped, the segment keys keep it
+        for (HlsMediaPlaylist.Segment segment : playlist.segments) {
+            if (segment.drmInitData != null) {
+                return segment.drmInitData;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The header map of license request properties given as key value pairs
+     */
+    @Nullable
+    static Map<String, String> headersFromPairs(@Nullable String[] keyRequestProperties) {
+        if (keyRequestProperties == null) {
+            return null;
+        }
+        TreeMap<String, String> headers = new TreeMap<>();
+        for (int i = 0; i < keyRequestProperties.length - 1; i += 2) {
+            headers.put(keyRequestProperties[i], keyRequestProperties[i + 1]);
+        }
+        return headers;
+    }
+}
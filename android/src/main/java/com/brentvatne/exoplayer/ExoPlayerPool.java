@@ -0,0 +1,212 @@
+package com.brentvatne.exoplayer;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+import androidx.media3.common.PlaybackParameters;
+import androidx.media3.common.Player;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Objects;
+
+/**
+ * Bounded pool of idle players shared by all {@link ReactExoplayerView} instances.
+ * Players keep their playback thread, renderers and allocator between leases so a new view
+ * skips the player construction cost. Idle players are trimmed under memory pressure, as
+ * reported by {@link MemoryPressureMonitor}. Only accessed from the main thread.
+ */
+public final class ExoPlayerPool {
+
+    private static final String TAG = "ExoPlayerPool";
+
+    /**
+     * Buffer configuration and capabilities a pooled player was built for. A player can only be
+     * reused by a view requesting the same configuration since its load control cannot be
+     * swapped. Protected content and secure surfaces get their own players, so that clear
+     * playback never runs on a player set up for DRM and the other way round.
+     */
+    static final class Key {
+        final boolean isProtected;
+        final boolean useSecureView;
+        final int minBufferMs;
+        final int maxBufferMs;
+        final int bufferForPlaybackMs;
+        final int bufferForPlaybackAfterRebufferMs;
+        final int backBufferDurationMs;
+        final double maxHeapAllocationPercent;
+        final double minBufferMemoryReservePercent;
+
+        Key(boolean isProtected, boolean useSecureView, int minBufferMs, int maxBufferMs,
+            int bufferForPlaybackMs, int bufferForPlaybackAfterRebufferMs, int backBufferDurationMs,
+            double maxHeapAllocationPercent, double minBufferMemoryReservePercent) {
+            this.isProtected = isProtected;
+            this.useSecureView = useSecureView;
+            this.minBufferMs = minBufferMs;
+            this.maxBufferMs = maxBufferMs;
+            this.bufferForPlaybackMs = bufferForPlaybackMs;
+            this.bufferForPlaybackAfterRebufferMs = bufferForPlaybackAfterRebufferMs;
+            this.backBufferDurationMs = backBufferDurationMs;
+            this.maxHeapAllocationPercent = maxHeapAllocationPercent;
+            this.minBufferMemoryReservePercent = minBufferMemoryReservePercent;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return isProtected == key.isProtected
+                    && useSecureView == key.useSecureView
+                    && minBufferMs == key.minBufferMs
+                    && maxBufferMs == key.maxBufferMs
+                    && bufferForPlaybackMs == key.bufferForPlaybackMs
+                    && bufferForPlaybackAfterRebufferMs == key.bufferForPlaybackAfterRebufferMs
+                    && backBufferDurationMs == key.backBufferDurationMs
+                    && Double.compare(maxHeapAllocationPercent, key.maxHeapAllocationPercent) == 0
+                    && Double.compare(minBufferMemoryReservePercent, key.minBufferMemoryReservePercent) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(isProtected, useSecureView, minBufferMs, maxBufferMs, bufferForPlaybackMs,
+                    bufferForPlaybackAfterRebufferMs, backBufferDurationMs,
+                    maxHeapAllocationPercent, minBufferMemoryReservePercent);
+        }
+    }
+
+    static final class PooledPlayer {
+        final Key key;
+        final ExoPlayer player;
+        final DefaultTrackSelector trackSelector;
+        final RNVLoadControl loadControl;
+
+        PooledPlayer(Key key, ExoPlayer player, DefaultTrackSelector trackSelector, RNVLoadControl loadControl) {
+            this.key = key;
+            this.player = player;
+            this.trackSelector = trackSelector;
+            this.loadControl = loadControl;
+        }
+
+        void release() {
+            loadControl.release();
+            player.release();
+        }
+    }
+
+    // Most recently released players first
+    private static final ArrayDeque<PooledPlayer> idlePlayers = new ArrayDeque<>();
+    private static boolean isTrimListenerRegistered = false;
+
+    private static int hits = 0;
+    private static int misses = 0;
+    private static int evictions = 0;
+
+    private ExoPlayerPool() {
+    }
+
+    @Nullable
+    static synchronized PooledPlayer acquire(Key key) {
+        Iterator<PooledPlayer> iterator = idlePlayers.iterator();
+        while (iterator.hasNext()) {
+            PooledPlayer pooledPlayer = iterator.next();
+            if (pooledPlayer.key.equals(key)) {
+                iterator.remove();
+                hits++;
+                pooledPlayer.loadControl.followMemoryPressure();
+                return pooledPlayer;
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Resets the given player and keeps it for a later lease, releasing the least recently used
+     * idle players beyond {@code maxSize}.
+     */
+    static synchronized void release(Context context, PooledPlayer pooledPlayer, int maxSize) {
+        registerTrimListener(context);
+        // A player built under pressure has no back buffer, the next lease would inherit that
+        if (maxSize <= 0 || pooledPlayer.loadControl.isBuiltUnderPressure()) {
+            pooledPlayer.release();
+            return;
+        }
+        try {
+            reset(context, pooledPlayer);
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to reset player, releasing it instead", e);
+            pooledPlayer.release();
+            return;
+        }
+        idlePlayers.addFirst(pooledPlayer);
+        trim(maxSize);
+    }
+
+    /**
+     * Releases idle players until at most {@code maxSize} are left.
+     */
+    static synchronized void trim(int maxSize) {
+        while (idlePlayers.size() > Math.max(maxSize, 0)) {
+            idlePlayers.removeLast().release();
+            evictions++;
+        }
+    }
+
+    public static synchronized void clear() {
+        trim(0);
+    }
+
+    static synchronized int getIdleCount() {
+        return idlePlayers.size();
+    }
+
+    /**
+     * @return Leases served from the pool (hits) or by building a player (misses), idle players
+     * released to honor the pool size or memory pressure (evictions) and the idle player count
+     */
+    public static synchronized WritableMap getStatsForJS() {
+        WritableMap map = Arguments.createMap();
+        map.putInt("hits", hits);
+        map.putInt("misses", misses);
+        map.putInt("evictions", evictions);
+        map.putInt("idle", idlePlayers.size());
+        return map;
+    }
+
+    private static void reset(Context context, PooledPlayer pooledPlayer) {
+        ExoPlayer player = pooledPlayer.player;
+        player.stop();
+        player.clearMediaItems();
+        player.setPlayWhenReady(false);
+        player.setRepeatMode(Player.REPEAT_MODE_OFF);
+        player.setVolume(1f);
+        player.setPlaybackParameters(PlaybackParameters.DEFAULT);
+        pooledPlayer.trackSelector.setParameters(DefaultTrackSelector.Parameters.getDefaults(context));
+        pooledPlayer.loadControl.setDisableBuffering(false);
+        pooledPlayer.loadControl.setBufferSizeListener(null);
+        pooledPlayer.loadControl.stopFollowingMemoryPressure();
+    }
+
+    private static void registerTrimListener(Context context) {
+        if (isTrimListenerRegistered) {
+            return;
+        }
+        isTrimListenerRegistered = true;
+        MemoryPressureMonitor.addTrimListener(context, ExoPlayerPool::onMemoryTrimmed);
+    }
+
+    private static void onMemoryTrimmed(int memoryPressure) {
+        if (memoryPressure == MemoryPressureMonitor.PRESSURE_CRITICAL) {
+            clear();
+        } else if (memoryPressure == MemoryPressureMonitor.PRESSURE_MODERATE) {
+            trim(getIdleCount() / 2);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.brentvatne.exoplayer;
+
+import android.content.Context;
+
+import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.modules.network.ForwardingCookieHandler;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
+import okhttp3.JavaNetCookieJar;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * Builds an OkHttpClient dedicated to media traffic, so manifests and segments don't compete with
+ * the app's API calls for the dispatcher limits and connection pool of React Native's client.
+ * Pass the result to {@link ReactExoplayerConfig#setMediaHttpClient}.
+ */
+public class MediaHttpClientBuilder {
+
+    public static final int DEFAULT_MAX_REQUESTS = 32;
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 8;
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 8;
+    public static final long DEFAULT_KEEP_ALIVE_MS = 5 * 60 * 1000;
+    public static final long DEFAULT_MANIFEST_TIMEOUT_MS = 8000;
+    public static final long DEFAULT_SEGMENT_TIMEOUT_MS = 20000;
+
+    private int maxRequests = DEFAULT_MAX_REQUESTS;
+    private int maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+    private int maxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+    private long keepAliveMs = DEFAULT_KEEP_ALIVE_MS;
+    private long manifestTimeoutMs = DEFAULT_MANIFEST_TIMEOUT_MS;
+    private long segmentTimeoutMs = DEFAULT_SEGMENT_TIMEOUT_MS;
+    private boolean http2Enabled = true;
+
+    public MediaHttpClientBuilder setMaxRequests(int maxRequests) {
+        this.maxRequests = maxRequests;
+        return this;
+    }
+
+    public MediaHttpClientBuilder setMaxRequestsPerHost(int maxRequestsPerHost) {
+        this.maxRequestsPerHost = maxRequestsPerHost;
+        return this;
+    }
+
+    public MediaHttpClientBuilder setMaxIdleConnections(int maxIdleConnections) {
+        this.maxIdleConnections = maxIdleConnections;
+        return this;
+    }
+
+    public MediaHttpClientBuilder setKeepAliveMs(long keepAliveMs) {
+        this.keepAliveMs = keepAliveMs;
+        return this;
+    }
+
+    /**
+     * Connect and read timeout for HLS playlists, DASH and SmoothStreaming manifests
+     */
+    public MediaHttpClientBuilder setManifestTimeoutMs(long manifestTimeoutMs) {
+        this.manifestTimeoutMs = manifestTimeoutMs;
+        return this;
+    }
+
+    /**
+     * Connect and read timeout for every other request, i.e. media segments and progressive files
+     */
+    public MediaHttpClientBuilder setSegmentTimeoutMs(long segmentTimeoutMs) {
+        this.segmentTimeoutMs = segmentTimeoutMs;
+        return this;
+    }
+
+    /**
+     * Whether requests to the same host are multiplexed over a single HTTP/2 connection when the
+     * server supports it
+     */
+    public MediaHttpClientBuilder setHttp2Enabled(boolean http2Enabled) {
+        this.http2Enabled = http2Enabled;
+        return this;
+    }
+
+    public OkHttpClient build(Context context) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveMs, TimeUnit.MILLISECONDS))
+                .connectTimeout(segmentTimeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(segmentTimeoutMs, TimeUnit.MILLISECONDS)
+                .addInterceptor(buildTimeoutInterceptor(manifestTimeoutMs, segmentTimeoutMs))
+                .protocols(http2Enabled
+                        ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                        : Arrays.asList(Protocol.HTTP_1_1));
+        if (context instanceof ReactContext) {
+            // Share cookies with the app like the React Native client does
+            builder.cookieJar(new JavaNetCookieJar(new ForwardingCookieHandler((ReactContext) context)));
+        }
+        return builder.build();
+    }
+
+    private static Interceptor buildTimeoutInterceptor(long manifestTimeoutMs, long segmentTimeoutMs) {
+        return chain -> {
+            long timeoutMs = isManifestPath(chain.request().url().encodedPath())
+                    ? manifestTimeoutMs
+                    : segmentTimeoutMs;
+            return chain
+                    .withConnectTimeout((int) timeoutMs, TimeUnit.MILLISECONDS)
+                    .withReadTimeout((int) timeoutMs, TimeUnit.MILLISECONDS)
+                    .proceed(chain.request());
+        };
+    }
+
+    private static boolean isManifestPath(String path) {
+        String lowerPath = path.toLowerCase(Locale.US);
+        return lowerPath.endsWith(".m3u8")
+                || lowerPath.endsWith(".mpd")
+                || lowerPath.endsWith("/manifest");
+    }
+}
@@ -0,0 +1,189 @@
+package com.brentvatne.exoplayer;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.function.IntConsumer;
+
+/**
+ * Tracks how much memory pressure the app is under for the load controls of all players.
+ * Pressure rises with the system's trim memory callbacks. Running critical, moderate, complete
+ * and low memory count as critical pressure, running moderate, running low and background as
+ * moderate pressure, so a foreground app only drops its pooled players once the system is about
+ * to kill background processes. Since the system never signals that pressure cleared, it steps
+ * back down one level at a time once {@link ActivityManager.MemoryInfo}
+ * no longer reports low memory. The Java heap headroom is sampled on the same timer, so loading
+ * decisions never query the runtime themselves. The timer runs while players follow the
+ * pressure or the pressure has yet to clear. This is the only trim memory callback of the
+ * library, the player pool listens to it as well. Only accessed from the main thread, except
+ * for the sampled values.
+ */
+final class MemoryPressureMonitor {
+
+    static final int PRESSURE_NONE = 0;
+    static final int PRESSURE_MODERATE = 1;
+    static final int PRESSURE_CRITICAL = 2;
+
+    private static final long SAMPLE_INTERVAL_MS = 2000;
+    // Time a level is held after the last trim callback before recovery is considered
+    private static final long RECOVERY_DELAY_MS = 15000;
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static final ArrayList<IntConsumer> listeners = new ArrayList<>();
+    private static final ArrayList<IntConsumer> trimListeners = new ArrayList<>();
+    private static ActivityManager activityManager;
+    private static boolean isRegistered = false;
+    private static boolean isSampling = false;
+
+    private static volatile int pressure = PRESSURE_NONE;
+    private static long lastPressureRaisedMs = 0;
+    private static volatile long freeHeapBytes = Long.MAX_VALUE;
+    private static volatile long maxHeapBytes = Runtime.getRuntime().maxMemory();
+
+    private static final Runnable sampleRunnable = MemoryPressureMonitor::sample;
+
+    private MemoryPressureMonitor() {
+    }
+
+    static String getPressureName(int pressure) {
+        switch (pressure) {
+            case PRESSURE_MODERATE:
+                return "moderate";
+            case PRESSURE_CRITICAL:
+                return "critical";
+            default:
+                return "none";
+        }
+    }
+
+    /**
+     * Adds a listener called on the main thread with the new pressure level whenever it changes.
+     */
+    static void addListener(Context context, IntConsumer listener) {
+        register(context);
+        listeners.add(listener);
+        if (!isSampling) {
+            isSampling = true;
+            sample();
+        }
+    }
+
+    static void removeListener(IntConsumer listener) {
+        listeners.remove(listener);
+        if (!shouldSample()) {
+            isSampling = false;
+            mainHandler.removeCallbacks(sampleRunnable);
+        }
+    }
+
+    /**
+     * Adds a listener called on the main thread with the pressure level of every trim memory
+     * callback that signals pressure, even when the level does not change.
+     */
+    static void addTrimListener(Context context, IntConsumer listener) {
+        register(context);
+        trimListeners.add(listener);
+    }
+
+    // The getters below are safe to call from any thread
+    static int getPressure() {
+        return pressure;
+    }
+
+    static long getFreeHeapBytes() {
+        return freeHeapBytes;
+    }
+
+    static long getMaxHeapBytes() {
+        return maxHeapBytes;
+    }
+
+    private static void register(Context context) {
+        if (isRegistered) {
+            return;
+        }
+        isRegistered = true;
+        Context applicationContext = context.getApplicationContext();
+        activityManager = (ActivityManager) applicationContext.getSystemService(Context.ACTIVITY_SERVICE);
+        applicationContext.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                // The running levels apply while in the foreground, the others once in the background
+                if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                        || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+                    onTrimmed(PRESSURE_CRITICAL);
+                } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                        || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                        || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+                    onTrimmed(PRESSURE_MODERATE);
+                }
+            }
+
+            @Override
+            public void onConfigurationChanged(@NonNull Configuration newConfig) {
+                // Do nothing.
+            }
+
+            @Override
+            public void onLowMemory() {
+                onTrimmed(PRESSURE_CRITICAL);
+            }
+        });
+    }
+
+    private static void onTrimmed(int trimPressure) {
+        lastPressureRaisedMs = SystemClock.elapsedRealtime();
+        if (trimPressure > pressure) {
+            setPressure(trimPressure);
+        }
+        // Recovery needs the timer even when no player follows the pressure
+        if (!isSampling) {
+            isSampling = true;
+            mainHandler.postDelayed(sampleRunnable, SAMPLE_INTERVAL_MS);
+        }
+        for (IntConsumer listener : new ArrayList<>(trimListeners)) {
+            listener.accept(trimPressure);
+        }
+    }
+
+    private static boolean shouldSample() {
+        return !listeners.isEmpty() || pressure > PRESSURE_NONE;
+    }
+
+    private static void sample() {
+        Runtime runtime = Runtime.getRuntime();
+        maxHeapBytes = runtime.maxMemory();
+        freeHeapBytes = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+
+        if (pressure > PRESSURE_NONE
+                && SystemClock.elapsedRealtime() - lastPressureRaisedMs >= RECOVERY_DELAY_MS) {
+            ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+            activityManager.getMemoryInfo(memoryInfo);
+            // Grow back one level at a time, giving the system time to complain again
+            lastPressureRaisedMs = SystemClock.elapsedRealtime();
+            if (!memoryInfo.lowMemory) {
+                setPressure(pressure - 1);
+            }
+        }
+        if (isSampling && shouldSample()) {
+            mainHandler.postDelayed(sampleRunnable, SAMPLE_INTERVAL_MS);
+        } else {
+            isSampling = false;
+        }
+    }
+
+    private static void setPressure(int newPressure) {
+        pressure = newPressure;
+        for (IntConsumer listener : new ArrayList<>(listeners)) {
+            listener.accept(newPressure);
+        }
+    }
+}
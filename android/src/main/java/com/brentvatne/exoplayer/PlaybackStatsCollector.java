@@ -0,0 +1,266 @@
+package com.brentvatne.exoplayer;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import androidx.media3.common.C;
+import androidx.media3.common.Format;
+import androidx.media3.common.Player;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
+import com.google.android.exoplayer2.decoder.DecoderReuseEvaluation;
+import com.google.android.exoplayer2.source.LoadEventInfo;
+import com.google.android.exoplayer2.source.MediaLoadData;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects quality of experience metrics of a playback session and reports them as one compact
+ * onPlaybackStats event every report interval and when the session ends.
+ * All callbacks arrive on the main thread.
+ */
+class PlaybackStatsCollector implements AnalyticsListener {
+
+    private final VideoEventEmitter eventEmitter;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable reportRunnable = this::reportAndReschedule;
+
+    private long reportIntervalMs = 0;
+    @Nullable private Uri uri;
+    private boolean hasSession = false;
+
+    private boolean hasBeenReady = false;
+    private boolean isSeeking = false;
+    private boolean isPlaying = false;
+    private boolean isRebuffering = false;
+    private long playingSinceMs = -1;
+    private long rebufferingSinceMs = -1;
+
+    private long playTimeMs = 0;
+    private int rebufferCount = 0;
+    private long rebufferTimeMs = 0;
+    private long droppedFrames = 0;
+    private int bitrateSwitchCount = 0;
+    @Nullable private Format videoFormat;
+    // Playing time per rendition, keyed by "<height>p@<bitrate>"
+    private final Map<String, Long> renditionTimeMs = new LinkedHashMap<>();
+    private double bitrateTimeProduct = 0;
+    // Throughput of this player's media loads, the bandwidth meter is shared with other players
+    private long lastLoadBitrate = 0;
+    private long loadedBytes = 0;
+    private long loadTimeMs = 0;
+
+    PlaybackStatsCollector(VideoEventEmitter eventEmitter) {
+        this.eventEmitter = eventEmitter;
+    }
+
+    /**
+     * @param reportIntervalMs Interval of intermediate reports, 0 disables reporting altogether
+     */
+    void setReportInterval(long reportIntervalMs) {
+        this.reportIntervalMs = reportIntervalMs;
+        handler.removeCallbacks(reportRunnable);
+        if (hasSession && reportIntervalMs > 0) {
+            handler.postDelayed(reportRunnable, reportIntervalMs);
+        }
+    }
+
+    void startSession(Uri uri) {
+        endSession();
+        this.uri = uri;
+        hasSession = true;
+        if (reportIntervalMs > 0) {
+            handler.postDelayed(reportRunnable, reportIntervalMs);
+        }
+    }
+
+    /**
+     * Sends the final report of the current session, if any, and resets all counters.
+     */
+    void endSession() {
+        handler.removeCallbacks(reportRunnable);
+        if (hasSession && hasBeenReady && reportIntervalMs > 0) {
+            report(true);
+        }
+        reset();
+    }
+
+    // AnalyticsListener implementation
+
+    @Override
+    public void onPlaybackStateChanged(@NonNull EventTime eventTime, int state) {
+        if (!hasSession) {
+            return;
+        }
+        long nowMs = eventTime.realtimeMs;
+        if (state == Player.STATE_READY) {
+            hasBeenReady = true;
+            isSeeking = false;
+            stopRebuffering(nowMs);
+        } else if (state == Player.STATE_BUFFERING) {
+            // Buffering at startup or after a seek is expected and not counted as rebuffering
+            if (hasBeenReady && !isSeeking && !isRebuffering) {
+                isRebuffering = true;
+                rebufferingSinceMs = nowMs;
+                rebufferCount++;
+            }
+        } else if (state == Player.STATE_ENDED) {
+            stopRebuffering(nowMs);
+            endSession();
+        }
+    }
+
+    @Override
+    public void onIsPlayingChanged(@NonNull EventTime eventTime, boolean isPlaying) {
+        if (!hasSession) {
+            return;
+        }
+        long nowMs = eventTime.realtimeMs;
+        if (isPlaying) {
+            playingSinceMs = nowMs;
+        } else {
+            accumulatePlayTime(nowMs);
+            playingSinceMs = -1;
+        }
+        this.isPlaying = isPlaying;
+    }
+
+    @Override
+    public void onPositionDiscontinuity(@NonNull EventTime eventTime, @NonNull Player.PositionInfo oldPosition,
+                                        @NonNull Player.PositionInfo newPosition, int reason) {
+        if (!hasSession) {
+            return;
+        }
+        if (reason == Player.DISCONTINUITY_REASON_SEEK) {
+            isSeeking = true;
+            stopRebuffering(eventTime.realtimeMs);
+        }
+    }
+
+    @Override
+    public void onDroppedVideoFrames(@NonNull EventTime eventTime, int droppedFrames, long elapsedMs) {
+        if (!hasSession) {
+            return;
+        }
+        this.droppedFrames += droppedFrames;
+    }
+
+    @Override
+    public void onVideoInputFormatChanged(@NonNull EventTime eventTime, @NonNull Format format,
+                                          @Nullable DecoderReuseEvaluation decoderReuseEvaluation) {
+        if (!hasSession) {
+            return;
+        }
+        accumulatePlayTime(eventTime.realtimeMs);
+        if (videoFormat != null && videoFormat.bitrate != format.bitrate) {
+            bitrateSwitchCount++;
+        }
+        videoFormat = format;
+    }
+
+    @Override
+    public void onLoadCompleted(@NonNull EventTime eventTime, @NonNull LoadEventInfo loadEventInfo,
+                                @NonNull MediaLoadData mediaLoadData) {
+        if (!hasSession || mediaLoadData.dataType != C.DATA_TYPE_MEDIA
+                || loadEventInfo.loadDurationMs <= 0 || loadEventInfo.bytesLoaded <= 0) {
+            return;
+        }
+        lastLoadBitrate = loadEventInfo.bytesLoaded * 8000 / loadEventInfo.loadDurationMs;
+        loadedBytes += loadEventInfo.bytesLoaded;
+        loadTimeMs += loadEventInfo.loadDurationMs;
+    }
+
+    private void stopRebuffering(long nowMs) {
+        if (isRebuffering) {
+            rebufferTimeMs += nowMs - rebufferingSinceMs;
+            isRebuffering = false;
+            rebufferingSinceMs = -1;
+        }
+    }
+
+    // Adds the playing time since the last call to the totals and the current rendition
+    private void accumulatePlayTime(long nowMs) {
+        if (!isPlaying || playingSinceMs < 0) {
+            return;
+        }
+        long elapsedMs = nowMs - playingSinceMs;
+        playingSinceMs = nowMs;
+        playTimeMs += elapsedMs;
+        if (videoFormat != null) {
+            String rendition = videoFormat.height + "p@" + videoFormat.bitrate;
+            Long timeMs = renditionTimeMs.get(rendition);
+            renditionTimeMs.put(rendition, (timeMs != null ? timeMs : 0) + elapsedMs);
+            if (videoFormat.bitrate != Format.NO_VALUE) {
+                bitrateTimeProduct += (double) videoFormat.bitrate * elapsedMs;
+            }
+        }
+    }
+
+    private void reportAndReschedule() {
+        if (hasBeenReady) {
+            report(false);
+        }
+        if (hasSession && reportIntervalMs > 0) {
+            handler.postDelayed(reportRunnable, reportIntervalMs);
+        }
+    }
+
+    private void report(boolean isFinal) {
+        long nowMs = SystemClock.elapsedRealtime();
+        accumulatePlayTime(nowMs);
+        long currentRebufferTimeMs = rebufferTimeMs + (isRebuffering ? nowMs - rebufferingSinceMs : 0);
+
+        WritableMap stats = Arguments.createMap();
+        stats.putString("uri", uri != null ? uri.toString() : null);
+        stats.putBoolean("final", isFinal);
+        stats.putDouble("playTime", playTimeMs);
+        stats.putInt("rebufferCount", rebufferCount);
+        stats.putDouble("rebufferTime", currentRebufferTimeMs);
+        long watchTimeMs = playTimeMs + currentRebufferTimeMs;
+        stats.putDouble("rebufferRatio", watchTimeMs > 0 ? (double) currentRebufferTimeMs / watchTimeMs : 0);
+        stats.putDouble("droppedFrames", droppedFrames);
+        stats.putInt("bitrateSwitches", bitrateSwitchCount);
+        stats.putDouble("averageBitrate", playTimeMs > 0 ? bitrateTimeProduct / playTimeMs : 0);
+        stats.putDouble("bandwidthEstimate", lastLoadBitrate);
+        stats.putDouble("averageBandwidth", loadTimeMs > 0 ? (double) loadedBytes * 8000 / loadTimeMs : 0);
+        WritableArray renditions = Arguments.createArray();
+        for (Map.Entry<String, Long> entry : renditionTimeMs.entrySet()) {
+            WritableMap rendition = Arguments.createMap();
+            rendition.putString("rendition", entry.getKey());
+            rendition.putDouble("time", entry.getValue());
+            renditions.pushMap(rendition);
+        }
+        stats.putArray("renditions", renditions);
+        eventEmitter.playbackStats(stats);
+    }
+
+    private void reset() {
+        uri = null;
+        hasSession = false;
+        hasBeenReady = false;
+        isSeeking = false;
+        isPlaying = false;
+        isRebuffering = false;
+        playingSinceMs = -1;
+        rebufferingSinceMs = -1;
+        playTimeMs = 0;
+        rebufferCount = 0;
+        rebufferTimeMs = 0;
+        droppedFrames = 0;
+        bitrateSwitchCount = 0;
+        videoFormat = null;
+        renditionTimeMs.clear();
+        bitrateTimeProduct = 0;
+        lastLoadBitrate = 0;
+        loadedBytes = 0;
+        loadTimeMs = 0;
+    }
+}
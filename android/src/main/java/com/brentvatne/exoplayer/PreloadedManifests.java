@@ -0,0 +1,137 @@
+package com.brentvatne.exoplayer;
+
+import android.net.Uri;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import androidx.media3.common.C;
+import com.google.android.exoplayer2.upstream.ByteArrayDataSource;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Raw manifests and playlists fetched by {@link VideoPreloader}, handed to the first player that
+ * requests them. Manifests bypass the streaming cache so that players always see fresh ones, a
+ * preloaded manifest is therefore served only once and only for a short while. Only manifests of
+ * on demand content are kept.
+ */
+final class PreloadedManifests {
+
+    private static final int MAX_ENTRIES = 16;
+    private static final long MAX_AGE_MS = 5 * 60 * 1000;
+
+    private static final class Entry {
+        final Uri resolvedUri;
+        final byte[] data;
+        final long loadedAtMs;
+
+        Entry(Uri resolvedUri, byte[] data) {
+            this.resolvedUri = resolvedUri;
+            this.data = data;
+            this.loadedAtMs = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private static final Map<Uri, Entry> entries = new LinkedHashMap<Uri, Entry>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Uri, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private PreloadedManifests() {
+    }
+
+    /**
+     * @param uri Uri the manifest was requested with
+     * @param resolvedUri Uri the manifest was loaded from after redirects, relative urls resolve against it
+     */
+    static synchronized void put(Uri uri, Uri resolvedUri, byte[] data) {
+        entries.put(uri, new Entry(resolvedUri, data));
+    }
+
+    @Nullable
+    private static synchronized Entry take(Uri uri) {
+        Entry entry = entries.remove(uri);
+        if (entry == null || SystemClock.elapsedRealtime() - entry.loadedAtMs > MAX_AGE_MS) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Wraps the given manifest factory so that full reads of a preloaded manifest are served
+     * from memory, everything else goes to the upstream factory.
+     */
+    static DataSource.Factory wrap(DataSource.Factory upstreamFactory) {
+        return () -> new PreloadedManifestDataSource(upstreamFactory.createDataSource());
+    }
+
+    private static final class PreloadedManifestDataSource implements DataSource {
+
+        private final DataSource upstream;
+        @Nullable private DataSource current;
+        @Nullable private Uri preloadedUri;
+
+        PreloadedManifestDataSource(DataSource upstream) {
+            this.upstream = upstream;
+        }
+
+        @Override
+        public void addTransferListener(TransferListener transferListener) {
+            upstream.addTransferListener(transferListener);
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            Entry entry = dataSpec.position == 0 && dataSpec.length == C.LENGTH_UNSET
+                    ? take(dataSpec.uri) : null;
+            if (entry == null) {
+                preloadedUri = null;
+                current = upstream;
+                return upstream.open(dataSpec);
+            }
+            preloadedUri = entry.resolvedUri;
+            current = new ByteArrayDataSource(entry.data);
+            return current.open(dataSpec);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return current.read(buffer, offset, length);
+        }
+
+        @Nullable
+        @Override
+        public Uri getUri() {
+            if (preloadedUri != null) {
+                return preloadedUri;
+            }
+            return current != null ? current.getUri() : null;
+        }
+
+        @Override
+        public Map<String, List<String>> getResponseHeaders() {
+            return current != null ? current.getResponseHeaders() : Collections.emptyMap();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                try {
+                    current.close();
+                } finally {
+                    current = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.brentvatne.exoplayer;
+
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+
+/**
+ * Single Choreographer driven ticker servicing the progress updates of all mounted players.
+ * Players due within the same frame are serviced in one pass, and nothing is scheduled while no
+ * player is registered. Only accessed from the main thread.
+ */
+final class ProgressTicker implements Choreographer.FrameCallback {
+
+    interface Listener {
+        /**
+         * @return Interval between ticks in milliseconds
+         */
+        long getProgressIntervalMs();
+
+        void onProgressTick();
+    }
+
+    // Listeners due within this window are serviced together with the current frame
+    private static final long FRAME_TOLERANCE_MS = 8;
+
+    private static ProgressTicker instance;
+
+    private final ArrayList<Entry> entries = new ArrayList<>();
+    private final ArrayList<Entry> dueEntries = new ArrayList<>();
+    private boolean isScheduled = false;
+    private long scheduledFrameMs = Long.MAX_VALUE;
+
+    private ProgressTicker() {
+    }
+
+    static ProgressTicker getInstance() {
+        if (instance == null) {
+            instance = new ProgressTicker();
+        }
+        return instance;
+    }
+
+    void add(Listener listener) {
+        if (indexOf(listener) != -1) {
+            return;
+        }
+        long nowMs = nowMs();
+        entries.add(new Entry(listener, nowMs));
+        schedule(nowMs, nowMs);
+    }
+
+    void remove(Listener listener) {
+        int index = indexOf(listener);
+        if (index == -1) {
+            return;
+        }
+        entries.get(index).isRemoved = true;
+        entries.remove(index);
+        if (entries.isEmpty() && isScheduled) {
+            Choreographer.getInstance().removeFrameCallback(this);
+            isScheduled = false;
+            scheduledFrameMs = Long.MAX_VALUE;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        isScheduled = false;
+        scheduledFrameMs = Long.MAX_VALUE;
+        long nowMs = frameTimeNanos / 1000000;
+
+        // Listeners may add or remove themselves while being ticked
+        dueEntries.clear();
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (entry.nextTickMs - nowMs <= FRAME_TOLERANCE_MS) {
+                dueEntries.add(entry);
+            }
+        }
+        for (int i = 0; i < dueEntries.size(); i++) {
+            Entry entry = dueEntries.get(i);
+            if (entry.isRemoved) {
+                continue;
+            }
+            entry.nextTickMs = nowMs + Math.max(entry.listener.getProgressIntervalMs(), 1);
+            entry.listener.onProgressTick();
+        }
+        dueEntries.clear();
+
+        long nextTickMs = Long.MAX_VALUE;
+        for (int i = 0; i < entries.size(); i++) {
+            nextTickMs = Math.min(nextTickMs, entries.get(i).nextTickMs);
+        }
+        if (nextTickMs != Long.MAX_VALUE) {
+            schedule(nextTickMs, nowMs);
+        }
+    }
+
+    private void schedule(long tickMs, long nowMs) {
+        if (isScheduled && scheduledFrameMs <= tickMs) {
+            return;
+        }
+        Choreographer choreographer = Choreographer.getInstance();
+        if (isScheduled) {
+            choreographer.removeFrameCallback(this);
+        }
+        choreographer.postFrameCallbackDelayed(this, Math.max(tickMs - nowMs, 0));
+        isScheduled = true;
+        scheduledFrameMs = tickMs;
+    }
+
+    private int indexOf(Listener listener) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).listener == listener) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long nowMs() {
+        // Same time base as the Choreographer frame time
+        return System.nanoTime() / 1000000;
+    }
+
+    private static final class Entry {
+        final Listener listener;
+        long nextTickMs;
+        boolean isRemoved = false;
+
+        Entry(Listener listener, long nextTickMs) {
+            this.listener = listener;
+            this.nextTickMs = nextTickMs;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.brentvatne.exoplayer;
+
+import android.app.ActivityManager;
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import androidx.media3.common.C;
+import androidx.media3.common.TrackGroupArray;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.trackselection.ExoTrackSelection;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Load control limiting the buffer to a share of the app heap. It does not reference the view
+ * owning the player so that pooled players can be handed to other views.
+ * <p>
+ * Under memory pressure, as reported by {@link MemoryPressureMonitor}, the buffer target shrinks
+ * and the allocator releases its spare segments. The full buffer comes back once the pressure
+ * cleared. Idle pooled players stop following the pressure until they are leased again.
+ */
+class RNVLoadControl extends DefaultLoadControl {
+
+    /**
+     * Called on the main thread when memory pressure changes the buffer limits.
+     */
+    interface BufferSizeListener {
+        /**
+         * @param maxBufferMs Buffer duration loading stops at
+         * @param targetBufferBytes Buffer size loading stops at, -1 before tracks were selected
+         */
+        void onBufferSizeChanged(int memoryPressure, long maxBufferMs, long targetBufferBytes);
+    }
+
+    // Share of the buffer kept per pressure level
+    private static final double[] BUFFER_FRACTIONS = {1, 0.5, 0.25};
+
+    private final DefaultAllocator allocator;
+    private final int availableHeapInBytes;
+    private final double minBufferMemoryReservePercent;
+    private final long maxBufferUs;
+    // Never stop loading below what playback needs to resume, or the player would get stuck
+    private final long minPressureBufferUs;
+    private final Context context;
+    private final IntConsumer pressureListener = this::onMemoryPressureChanged;
+    private boolean isFollowingPressure = false;
+    // Players built under pressure keep no back buffer for their whole life
+    private final boolean isBuiltUnderPressure;
+    private boolean disableBuffering = false;
+    @Nullable private BufferSizeListener bufferSizeListener;
+
+    // Written on the main thread and the playback thread, read on the playback thread
+    private volatile long pressureMaxBufferUs = C.TIME_UNSET;
+    private volatile int pressureTargetBufferBytes = C.LENGTH_UNSET;
+    private volatile int selectedTargetBufferBytes = C.LENGTH_UNSET;
+
+    public RNVLoadControl(Context context, DefaultAllocator allocator, int minBufferMs, int maxBufferMs, int bufferForPlaybackMs, int bufferForPlaybackAfterRebufferMs, int targetBufferBytes, boolean prioritizeTimeOverSizeThresholds, int backBufferDurationMs, boolean retainBackBufferFromKeyframe, double maxHeapAllocationPercent, double minBufferMemoryReservePercent) {
+        super(allocator,
+                minBufferMs,
+                maxBufferMs,
+                bufferForPlaybackMs,
+                bufferForPlaybackAfterRebufferMs,
+                targetBufferBytes,
+                prioritizeTimeOverSizeThresholds,
+                backBufferDurationMs,
+                retainBackBufferFromKeyframe);
+        this.allocator = allocator;
+        this.minBufferMemoryReservePercent = minBufferMemoryReservePercent;
+        this.maxBufferUs = maxBufferMs * 1000L;
+        this.minPressureBufferUs = Math.max(bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs) * 1000L;
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        availableHeapInBytes = (int) Math.floor(activityManager.getMemoryClass() * maxHeapAllocationPercent * 1024 * 1024);
+        this.context = context;
+        isBuiltUnderPressure = MemoryPressureMonitor.getPressure() > MemoryPressureMonitor.PRESSURE_NONE;
+        followMemoryPressure();
+    }
+
+    public void setDisableBuffering(boolean disableBuffering) {
+        this.disableBuffering = disableBuffering;
+    }
+
+    public void setBufferSizeListener(@Nullable BufferSizeListener bufferSizeListener) {
+        this.bufferSizeListener = bufferSizeListener;
+    }
+
+    /**
+     * Adapts the buffer to the memory pressure from now on, called when the player is leased.
+     */
+    public void followMemoryPressure() {
+        if (isFollowingPressure) {
+            return;
+        }
+        isFollowingPressure = true;
+        MemoryPressureMonitor.addListener(context, pressureListener);
+        onMemoryPressureChanged(MemoryPressureMonitor.getPressure());
+    }
+
+    /**
+     * Stops following memory pressure, called when the player goes idle or is released.
+     */
+    public void stopFollowingMemoryPressure() {
+        if (!isFollowingPressure) {
+            return;
+        }
+        isFollowingPressure = false;
+        MemoryPressureMonitor.removeListener(pressureListener);
+    }
+
+    public void release() {
+        stopFollowingMemoryPressure();
+        bufferSizeListener = null;
+    }
+
+    public boolean isBuiltUnderPressure() {
+        return isBuiltUnderPressure;
+    }
+
+    @Override
+    public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups, ExoTrackSelection[] trackSelections) {
+        super.onTracksSelected(renderers, trackGroups, trackSelections);
+        selectedTargetBufferBytes = calculateTargetBufferBytes(renderers, trackSelections);
+        applyPressureLimits(MemoryPressureMonitor.getPressure());
+    }
+
+    @Override
+    public long getBackBufferDurationUs() {
+        // Read once when the player is built
+        return isBuiltUnderPressure ? 0 : super.getBackBufferDurationUs();
+    }
+
+    @Override
+    public boolean shouldContinueLoading(long playbackPositionUs, long bufferedDurationUs, float playbackSpeed) {
+        if (disableBuffering) {
+            return false;
+        }
+        int loadedBytes = allocator.getTotalBytesAllocated();
+        boolean isHeapReached = availableHeapInBytes > 0 && loadedBytes >= availableHeapInBytes;
+        if (isHeapReached) {
+            return false;
+        }
+        if (bufferedDurationUs >= minPressureBufferUs) {
+            long maxBufferUs = pressureMaxBufferUs;
+            int targetBufferBytes = pressureTargetBufferBytes;
+            if ((maxBufferUs != C.TIME_UNSET && bufferedDurationUs >= maxBufferUs)
+                    || (targetBufferBytes != C.LENGTH_UNSET && loadedBytes >= targetBufferBytes)) {
+                return false;
+            }
+        }
+        long reserveMemory = (long) (minBufferMemoryReservePercent * MemoryPressureMonitor.getMaxHeapBytes());
+        long bufferedMs = bufferedDurationUs / (long)1000;
+        if (reserveMemory > MemoryPressureMonitor.getFreeHeapBytes() && bufferedMs > 2000) {
+            // We don't have enough memory in reserve so we stop buffering to allow other components to use it instead
+            return false;
+        }
+        return super.shouldContinueLoading(playbackPositionUs, bufferedDurationUs, playbackSpeed);
+    }
+
+    private void onMemoryPressureChanged(int memoryPressure) {
+        applyPressureLimits(memoryPressure);
+        BufferSizeListener listener = bufferSizeListener;
+        if (listener != null) {
+            long maxBufferUs = pressureMaxBufferUs;
+            listener.onBufferSizeChanged(memoryPressure,
+                    (maxBufferUs != C.TIME_UNSET ? maxBufferUs : this.maxBufferUs) / 1000,
+                    pressureTargetBufferBytes != C.LENGTH_UNSET ? pressureTargetBufferBytes : selectedTargetBufferBytes);
+        }
+    }
+
+    private void applyPressureLimits(int memoryPressure) {
+        double fraction = BUFFER_FRACTIONS[memoryPressure];
+        int selectedTargetBytes = selectedTargetBufferBytes;
+        if (memoryPressure == MemoryPressureMonitor.PRESSURE_NONE) {
+            pressureMaxBufferUs = C.TIME_UNSET;
+            pressureTargetBufferBytes = C.LENGTH_UNSET;
+        } else {
+            pressureMaxBufferUs = Math.max((long) (maxBufferUs * fraction), minPressureBufferUs);
+            pressureTargetBufferBytes = selectedTargetBytes != C.LENGTH_UNSET
+                    ? (int) (selectedTargetBytes * fraction) : C.LENGTH_UNSET;
+        }
+        if (selectedTargetBytes != C.LENGTH_UNSET) {
+            // Lowering the target releases the allocator's spare segments, raising it lets it grow back
+            allocator.setTargetBufferSize(pressureTargetBufferBytes != C.LENGTH_UNSET
+                    ? pressureTargetBufferBytes : selectedTargetBytes);
+        }
+        if (memoryPressure != MemoryPressureMonitor.PRESSURE_NONE) {
+            allocator.trim();
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package com.brentvatne.exoplayer;
 
+import androidx.annotation.Nullable;
+
 import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer2.upstream.LoadErrorHandlingPolicy;
 
+import okhttp3.OkHttpClient;
+
 /**
  * Extension points to configure the Exoplayer instance
  */
@@ -13,4 +17,42 @@ public interface ReactExoplayerConfig {
     boolean getDisableDisconnectError();
 
     DefaultBandwidthMeter getBandwidthMeter();
+
+    /**
+     * Size cap of the shared streaming cache in bytes, 0 disables streaming caching
+     */
+    void setStreamingCacheMaxBytes(long streamingCacheMaxBytes);
+    long getStreamingCacheMaxBytes();
+
+    /**
+     * Number of idle players kept for reuse by new views, 0 disables pooling
+     */
+    void setPlayerPoolSize(int playerPoolSize);
+    int getPlayerPoolSize();
+
+    /**
+     * Client used for media requests, null shares React Native's client with the app.
+     * See {@link MediaHttpClientBuilder} for a client tuned for media traffic.
+     */
+    void setMediaHttpClient(@Nullable OkHttpClient mediaHttpClient);
+    @Nullable OkHttpClient getMediaHttpClient();
+
+    /**
+     * Executor for short background work of players such as DRM setup and manifest parsing
+     */
+    void setTaskExecutor(VideoTaskExecutor taskExecutor);
+    VideoTaskExecutor getTaskExecutor();
+
+    /**
+     * Number of offline downloads running at the same time
+     */
+    void setMaxParallelDownloads(int maxParallelDownloads);
+    int getMaxParallelDownloads();
+
+    /**
+     * Upper bound of segments downloaded concurrently per offline download. The actual number
+     * adapts to the measured throughput.
+     */
+    void setMaxSegmentDownloadsPerAsset(int maxSegmentDownloadsPerAsset);
+    int getMaxSegmentDownloadsPerAsset();
 }
@@ -7,13 +7,10 @@ import static androidx.media3.common.C.CONTENT_TYPE_SS;
 
 import android.annotation.SuppressLint;
 import android.app.Activity;
-import android.app.ActivityManager;
 import android.content.Context;
 import android.media.AudioManager;
 import android.net.Uri;
 import android.os.Handler;
-import android.os.Looper;
-import android.os.Message;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.View;
@@ -22,6 +19,7 @@ import android.view.accessibility.CaptioningManager;
 import android.widget.FrameLayout;
 import android.widget.ImageButton;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.activity.OnBackPressedCallback;
 
@@ -36,10 +34,12 @@ import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.uimanager.ThemedReactContext;
 import androidx.media3.common.C;
+import androidx.media3.common.DrmInitData;
 import com.google.android.exoplayer2.DefaultLoadControl;
 import com.google.android.exoplayer2.DefaultRenderersFactory;
 import androidx.media3.common.Format;
 import androidx.media3.common.MediaItem;
+import androidx.media3.common.MimeTypes;
 import androidx.media3.common.PlaybackException;
 import androidx.media3.common.PlaybackParameters;
 import androidx.media3.common.Player;
@@ -65,6 +65,8 @@ import androidx.media3.common.TrackGroup;
 import androidx.media3.common.TrackGroupArray;
 import com.google.android.exoplayer2.source.dash.DashMediaSource;
 import com.google.android.exoplayer2.source.dash.DefaultDashChunkSource;
+import com.google.android.exoplayer2.source.hls.DefaultHlsDataSourceFactory;
+import com.google.android.exoplayer2.source.hls.HlsDataSourceFactory;
 import com.google.android.exoplayer2.source.hls.HlsMediaSource;
 import com.google.android.exoplayer2.source.smoothstreaming.DefaultSsChunkSource;
 import com.google.android.exoplayer2.source.smoothstreaming.SsMediaSource;
@@ -89,7 +91,6 @@ import com.google.android.exoplayer2.source.dash.manifest.Period;
 import com.google.android.exoplayer2.source.dash.manifest.AdaptationSet;
 import com.google.android.exoplayer2.source.dash.manifest.Representation;
 
-import com.google.android.exoplayer2.source.DefaultMediaSourceFactory;
 
 import com.google.common.collect.ImmutableList;
 import java.net.CookieHandler;
@@ -101,11 +102,7 @@ import java.util.Locale;
 import java.util.UUID;
 import java.util.Map;
 import java.lang.Thread;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.RejectedExecutionException;
 import java.lang.Integer;
 
 import com.brentvatne.exoplayer.persistencemanager.AssetPersistenceManager;
@@ -117,7 +114,8 @@ class ReactExoplayerView extends FrameLayout implements
         BandwidthMeter.EventListener,
         BecomingNoisyListener,
         AudioManager.OnAudioFocusChangeListener,
-        DrmSessionEventListener {
+        DrmSessionEventListener,
+        ProgressTicker.Listener {
 
     public static final double DEFAULT_MAX_HEAP_ALLOCATION_PERCENT = 1;
     public static final double DEFAULT_MIN_BACK_BUFFER_MEMORY_RESERVE = 0;
@@ -126,7 +124,7 @@ class ReactExoplayerView extends FrameLayout implements
     private static final String TAG = "ReactExoplayerView";
 
     private static final CookieManager DEFAULT_COOKIE_MANAGER;
-    private static final int SHOW_PROGRESS = 1;
+    private static final long DEFAULT_PROGRESS_UPDATE_INTERVAL_MS = 250;
 
     static {
         DEFAULT_COOKIE_MANAGER = new CookieManager();
@@ -163,6 +161,8 @@ class ReactExoplayerView extends FrameLayout implements
     private int maxBitRate = 0;
     private long seekTime = C.TIME_UNSET;
     private boolean hasDrmFailed = false;
+    // Error code of the DRM failure that made the player retry with L3
+    private int drmFailureCode = PlaybackException.ERROR_CODE_UNSPECIFIED;
     private boolean isUsingContentResolution = false;
     private boolean selectTrackWhenReady = false;
 
@@ -190,16 +190,25 @@ class ReactExoplayerView extends FrameLayout implements
     private boolean disableFocus;
     private boolean focusable = true;
     private boolean disableBuffering;
+    private ExoPlayerPool.PooledPlayer pooledPlayer;
+    private final StartupTracer startupTracer;
+    private final PlaybackStatsCollector playbackStatsCollector;
     private long contentStartTime = -1L;
     private boolean disableDisconnectError;
     private boolean preventsDisplaySleepDuringVideoPlayback = true;
     private float mProgressUpdateInterval = 250.0f;
     private boolean playInBackground = false;
     private Map<String, String> requestHeaders;
+    private boolean shouldCache = false;
     private boolean mReportBandwidth = false;
     private UUID drmUUID = null;
+    private boolean useSecureView = false;
     private String drmLicenseUrl = null;
     private String[] drmLicenseHeader = null;
+    // Init data known before the manifest, lets the license request run alongside manifest loading
+    private byte[] drmPssh = null;
+    // Session manager of the current source when it may open sessions with cached licenses
+    @Nullable private CachedLicenseDrmSessionManager cachedLicenseDrmSessionManager = null;
     private boolean controls;
     // \ End props
 
@@ -213,47 +222,54 @@ class ReactExoplayerView extends FrameLayout implements
     private long lastBufferDuration = -1;
     private long lastDuration = -1;
 
-    private final Handler progressHandler = new Handler(Looper.getMainLooper()) {
-        @Override
-        public void handleMessage(Message msg) {
-            switch (msg.what) {
-                case SHOW_PROGRESS:
-                    if (player != null) {
-                        if (playerControlView != null && isPlayingAd() && controls) {
-                            playerControlView.hide();
-                        }
-                        long pos = player.getCurrentPosition();
-                        long bufferedDuration = player.getBufferedPercentage() * player.getDuration() / 100;
-                        long duration = player.getDuration();
-
-                        if (lastPos != pos
-                                || lastBufferDuration != bufferedDuration
-                                || lastDuration != duration) {
-                            lastPos = pos;
-                            lastBufferDuration = bufferedDuration;
-                            lastDuration = duration;
-                            eventEmitter.progressChanged(pos, bufferedDuration, player.getDuration(), getPositionInFirstPeriodMsForCurrentWindow(pos));
-                        }
-                        msg = obtainMessage(SHOW_PROGRESS);
-                        sendMessageDelayed(msg, Math.round(mProgressUpdateInterval));
-                    }
-                    break;
-            }
+    private final Timeline.Window progressWindow = new Timeline.Window();
+
+    // ProgressTicker.Listener implementation
+    @Override
+    public long getProgressIntervalMs() {
+        return mProgressUpdateInterval > 0 ? Math.round(mProgressUpdateInterval) : DEFAULT_PROGRESS_UPDATE_INTERVAL_MS;
+    }
+
+    @Override
+    public void onProgressTick() {
+        if (player == null) {
+            return;
+        }
+        if (playerControlView != null && isPlayingAd() && controls) {
+            playerControlView.hide();
+        }
+        // Nobody sees the progress of a view that is not on screen, it catches up once it is back
+        if (mProgressUpdateInterval <= 0 || !isAttachedToWindow() || (!isShown() && !playInBackground)) {
+            return;
         }
-    };
+        long pos = player.getCurrentPosition();
+        long duration = player.getDuration();
+        long bufferedDuration = player.getBufferedPercentage() * duration / 100;
+
+        if (lastPos != pos
+                || lastBufferDuration != bufferedDuration
+                || lastDuration != duration) {
+            lastPos = pos;
+            lastBufferDuration = bufferedDuration;
+            lastDuration = duration;
+            eventEmitter.progressChanged(pos, bufferedDuration, duration, getPositionInFirstPeriodMsForCurrentWindow(pos));
+        }
+    }
 
     public double getPositionInFirstPeriodMsForCurrentWindow(long currentPosition) {
-        Timeline.Window window = new Timeline.Window();
+        progressWindow.windowStartTimeMs = 0;
         if(!player.getCurrentTimeline().isEmpty()) {
-            player.getCurrentTimeline().getWindow(player.getCurrentMediaItemIndex(), window);
+            player.getCurrentTimeline().getWindow(player.getCurrentMediaItemIndex(), progressWindow);
         }
-        return window.windowStartTimeMs + currentPosition;
+        return progressWindow.windowStartTimeMs + currentPosition;
     }
 
     public ReactExoplayerView(ThemedReactContext context, ReactExoplayerConfig config) {
         super(context);
         this.themedReactContext = context;
         this.eventEmitter = new VideoEventEmitter(context);
+        this.startupTracer = new StartupTracer(eventEmitter);
+        this.playbackStatsCollector = new PlaybackStatsCollector(eventEmitter);
         this.config = config;
         this.bandwidthMeter = config.getBandwidthMeter();
 
@@ -325,6 +341,7 @@ class ReactExoplayerView extends FrameLayout implements
 
     @Override
     public void onHostDestroy() {
+        // Returns this view's lease only, the pool is shared with the other hosts
         stopPlayback();
     }
 
@@ -477,51 +494,6 @@ class ReactExoplayerView extends FrameLayout implements
         view.layout(view.getLeft(), view.getTop(), view.getMeasuredWidth(), view.getMeasuredHeight());
     }
 
-    private class RNVLoadControl extends DefaultLoadControl {
-        private int availableHeapInBytes = 0;
-        private Runtime runtime;
-        public RNVLoadControl(DefaultAllocator allocator, int minBufferMs, int maxBufferMs, int bufferForPlaybackMs, int bufferForPlaybackAfterRebufferMs, int targetBufferBytes, boolean prioritizeTimeOverSizeThresholds, int backBufferDurationMs, boolean retainBackBufferFromKeyframe) {
-            super(allocator,
-                    minBufferMs,
-                    maxBufferMs,
-                    bufferForPlaybackMs,
-                    bufferForPlaybackAfterRebufferMs,
-                    targetBufferBytes,
-                    prioritizeTimeOverSizeThresholds,
-                    backBufferDurationMs,
-                    retainBackBufferFromKeyframe);
-            runtime = Runtime.getRuntime();
-            ActivityManager activityManager = (ActivityManager) themedReactContext.getSystemService(themedReactContext.ACTIVITY_SERVICE);
-            availableHeapInBytes = (int) Math.floor(activityManager.getMemoryClass() * maxHeapAllocationPercent * 1024 * 1024);
-        }
-
-        @Override
-        public boolean shouldContinueLoading(long playbackPositionUs, long bufferedDurationUs, float playbackSpeed) {
-            if (ReactExoplayerView.this.disableBuffering) {
-                return false;
-            }
-            int loadedBytes = getAllocator().getTotalBytesAllocated();
-            boolean isHeapReached = availableHeapInBytes > 0 && loadedBytes >= availableHeapInBytes;
-            if (isHeapReached) {
-                return false;
-            }
-            long usedMemory = runtime.totalMemory() - runtime.freeMemory();
-            long freeMemory = runtime.maxMemory() - usedMemory;
-            long reserveMemory = (long)minBufferMemoryReservePercent * runtime.maxMemory();
-            long bufferedMs = bufferedDurationUs / (long)1000;
-            if (reserveMemory > freeMemory && bufferedMs > 2000) {
-                // We don't have enough memory in reserve so we stop buffering to allow other components to use it instead
-                return false;
-            }
-            if (runtime.freeMemory() == 0) {
-                Log.w("ExoPlayer Warning", "Free memory reached 0, forcing garbage collection");
-                runtime.gc();
-                return false;
-            }
-            return super.shouldContinueLoading(playbackPositionUs, bufferedDurationUs, playbackSpeed);
-        }
-    }
-
     private void startBufferCheckTimer() {
         Player player = this.player;
         VideoEventEmitter eventEmitter = this.eventEmitter;
@@ -537,19 +509,28 @@ class ReactExoplayerView extends FrameLayout implements
             @Override
             public void run() {
                 try {
+                    // An already existing player counts as reused
+                    boolean isPlayerReused = true;
+                    if (player != null && playerNeedsSource && !pooledPlayer.key.equals(buildPoolKey())) {
+                        // The new source needs a player set up differently, e.g. clear after protected content
+                        returnPlayerLease();
+                    }
                     if (player == null) {
                         // Initialize core configuration and listeners
-                        initializePlayerCore(self);
+                        isPlayerReused = initializePlayerCore(self);
                     }
+                    startupTracer.onPlayerInitialized(isPlayerReused);
                     if (playerNeedsSource && srcUri != null) {
                         exoPlayerView.invalidateAspectRatio();
-                        // DRM session manager creation must be done on a different thread to prevent crashes so we start a new thread
-                        ExecutorService es = Executors.newSingleThreadExecutor();
-                        es.execute(new Runnable() {
+                        // DRM session manager creation must be done on a different thread to prevent crashes.
+                        // It runs on the startup executor, which never rejects nor waits behind network work
+                        VideoTaskExecutor.getStartup().execute(VideoTaskExecutor.PRIORITY_HIGH, new Runnable() {
                             @Override
                             public void run() {
                                 // DRM initialization must run on a different thread
+                                startupTracer.onDrmSetupStarted();
                                 DrmSessionManager drmSessionManager = initializePlayerDrm(self);
+                                startupTracer.onDrmSetupFinished();
                                 if (drmSessionManager == null && self.drmUUID != null) {
                                     // Failed to intialize DRM session manager - cannot continue
                                     Log.e("ExoPlayer Exception", "Failed to initialize DRM Session Manager Framework!");
@@ -593,53 +574,126 @@ class ReactExoplayerView extends FrameLayout implements
 
     }
 
-    private void initializePlayerCore(ReactExoplayerView self) {
-        ExoTrackSelection.Factory videoTrackSelectionFactory = new AdaptiveTrackSelection.Factory();
-        self.trackSelector = new DefaultTrackSelector(getContext(), videoTrackSelectionFactory);
+    /**
+     * @return Whether the player was taken from the pool rather than built
+     */
+    private boolean initializePlayerCore(ReactExoplayerView self) {
+        ExoPlayerPool.Key poolKey = buildPoolKey();
+        pooledPlayer = ExoPlayerPool.acquire(poolKey);
+        boolean isReused = pooledPlayer != null;
+        if (pooledPlayer == null) {
+            pooledPlayer = buildPooledPlayer(poolKey);
+        }
+        self.trackSelector = pooledPlayer.trackSelector;
         self.trackSelector.setParameters(trackSelector.buildUponParameters()
                 .setMaxVideoBitrate(maxBitRate == 0 ? Integer.MAX_VALUE : maxBitRate));
+        pooledPlayer.loadControl.setDisableBuffering(disableBuffering);
+        pooledPlayer.loadControl.setBufferSizeListener((memoryPressure, maxBufferMs, targetBufferBytes) ->
+                eventEmitter.bufferSizeChange(MemoryPressureMonitor.getPressureName(memoryPressure),
+                        maxBufferMs, targetBufferBytes));
 
-        DefaultAllocator allocator = new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
-        RNVLoadControl loadControl = new RNVLoadControl(
-                allocator,
+        player = pooledPlayer.player;
+        player.addListener(self);
+        player.addAnalyticsListener(startupTracer);
+        player.addAnalyticsListener(playbackStatsCollector);
+        exoPlayerView.setPlayer(player);
+        if (playerControlView != null) {
+            playerControlView.setPlayer(player);
+        }
+        audioBecomingNoisyReceiver.setListener(self);
+        bandwidthMeter.addEventListener(new Handler(), self);
+        setPlayWhenReady(!isPaused);
+        playerNeedsSource = true;
+
+        PlaybackParameters params = new PlaybackParameters(rate, 1f);
+        player.setPlaybackParameters(params);
+        return isReused;
+    }
+
+    // Pooled player configuration the current source and props need
+    private ExoPlayerPool.Key buildPoolKey() {
+        // Downloaded protected assets play with DRM even without a DRM prop
+        boolean isProtected = drmUUID != null
+                || (srcUri != null && AssetPersistenceManager.offlineKeySetIdForUri(srcUri) != null);
+        return new ExoPlayerPool.Key(
+                isProtected,
+                useSecureView,
                 minBufferMs,
                 maxBufferMs,
                 bufferForPlaybackMs,
                 bufferForPlaybackAfterRebufferMs,
+                backBufferDurationMs,
+                maxHeapAllocationPercent,
+                minBufferMemoryReservePercent
+        );
+    }
+
+    private ExoPlayerPool.PooledPlayer buildPooledPlayer(ExoPlayerPool.Key poolKey) {
+        // Pooled players outlive this view so they must not hold on to the activity
+        Context appContext = getContext().getApplicationContext();
+        ExoTrackSelection.Factory videoTrackSelectionFactory = new AdaptiveTrackSelection.Factory();
+        DefaultTrackSelector trackSelector = new DefaultTrackSelector(appContext, videoTrackSelectionFactory);
+
+        DefaultAllocator allocator = new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+        RNVLoadControl loadControl = new RNVLoadControl(
+                appContext,
+                allocator,
+                poolKey.minBufferMs,
+                poolKey.maxBufferMs,
+                poolKey.bufferForPlaybackMs,
+                poolKey.bufferForPlaybackAfterRebufferMs,
                 -1,
                 true,
-                backBufferDurationMs,
-                DefaultLoadControl.DEFAULT_RETAIN_BACK_BUFFER_FROM_KEYFRAME
+                poolKey.backBufferDurationMs,
+                DefaultLoadControl.DEFAULT_RETAIN_BACK_BUFFER_FROM_KEYFRAME,
+                poolKey.maxHeapAllocationPercent,
+                poolKey.minBufferMemoryReservePercent
         );
         DefaultRenderersFactory renderersFactory =
-                new DefaultRenderersFactory(getContext())
+                new DefaultRenderersFactory(appContext)
                         .setExtensionRendererMode(DefaultRenderersFactory.EXTENSION_RENDERER_MODE_OFF);
 
-        MediaSource.Factory mediaSourceFactory = new DefaultMediaSourceFactory(mediaDataSourceFactory);
-
-        player = new ExoPlayer.Builder(getContext(), renderersFactory)
-                    .setTrackSelector(self.trackSelector)
+        ExoPlayer player = new ExoPlayer.Builder(appContext, renderersFactory)
+                    .setTrackSelector(trackSelector)
                     .setBandwidthMeter(bandwidthMeter)
                     .setLoadControl(loadControl)
-                    .setMediaSourceFactory(mediaSourceFactory)
                     .build();
-        player.addListener(self);
-        exoPlayerView.setPlayer(player);
-        audioBecomingNoisyReceiver.setListener(self);
-        bandwidthMeter.addEventListener(new Handler(), self);
-        setPlayWhenReady(!isPaused);
-        playerNeedsSource = true;
-
-        PlaybackParameters params = new PlaybackParameters(rate, 1f);
-        player.setPlaybackParameters(params);
+        return new ExoPlayerPool.PooledPlayer(poolKey, player, trackSelector, loadControl);
     }
 
     private DrmSessionManager initializePlayerDrm(ReactExoplayerView self) {
         DrmSessionManager drmSessionManager = null;
-        if (self.drmUUID != null) {
+        // Downloaded protected assets play with their offline license, even without a DRM prop
+        byte[] offlineKeySetId = self.srcUri != null ? AssetPersistenceManager.offlineKeySetIdForUri(self.srcUri) : null;
+        if (offlineKeySetId != null) {
             try {
-                drmSessionManager = self.buildDrmSessionManager(self.drmUUID, self.drmLicenseUrl,
+                DefaultDrmSessionManager offlineSessionManager = self.buildDrmSessionManager(
+                        self.drmUUID != null ? self.drmUUID : C.WIDEVINE_UUID, self.drmLicenseUrl,
                         self.drmLicenseHeader);
+                if (offlineSessionManager != null) {
+                    offlineSessionManager.setMode(DefaultDrmSessionManager.MODE_PLAYBACK, offlineKeySetId);
+                    return offlineSessionManager;
+                }
+            } catch (UnsupportedDrmException e) {
+                Log.w("ExoPlayer Warning", "Offline license unusable, falling back to online DRM", e);
+            }
+        }
+        if (self.drmUUID != null) {
+            try {
+                DrmSessionManager onlineSessionManager = self.buildDrmSessionManager(self.drmUUID,
+                        self.drmLicenseUrl, self.drmLicenseHeader);
+                if (onlineSessionManager != null) {
+                    // Content keys with a prefetched license skip the license request
+                    UUID uuid = self.drmUUID;
+                    String licenseUrl = self.drmLicenseUrl;
+                    String[] licenseHeader = self.drmLicenseHeader;
+                    DrmInitData preacquireDrmInitData = self.drmPssh != null
+                            ? new DrmInitData(new DrmInitData.SchemeData(uuid, MimeTypes.VIDEO_MP4, self.drmPssh))
+                            : null;
+                    drmSessionManager = new CachedLicenseDrmSessionManager(onlineSessionManager, uuid, licenseUrl,
+                            DrmLicenseCache.headersFromPairs(licenseHeader), preacquireDrmInitData,
+                            () -> self.buildDrmSessionManager(uuid, licenseUrl, licenseHeader));
+                }
             } catch (UnsupportedDrmException e) {
                 int errorStringId = Util.SDK_INT < 18 ? R.string.error_drm_not_supported
                         : (e.reason == UnsupportedDrmException.REASON_UNSUPPORTED_SCHEME
@@ -652,6 +706,10 @@ class ReactExoplayerView extends FrameLayout implements
     }
 
     private void initializePlayerSource(ReactExoplayerView self, DrmSessionManager drmSessionManager) {
+        startupTracer.onSourceInitialized();
+        cachedLicenseDrmSessionManager = drmSessionManager instanceof CachedLicenseDrmSessionManager
+                ? (CachedLicenseDrmSessionManager) drmSessionManager : null;
+        VideoPreloader.onPlaybackStarted(self.srcUri, isStreamingCacheEnabled());
         ArrayList<MediaSource> mediaSourceList = buildTextSources();
         MediaSource videoSource = buildMediaSource(self.srcUri, self.extension, drmSessionManager);
         MediaSource mediaSource;
@@ -679,7 +737,9 @@ class ReactExoplayerView extends FrameLayout implements
         if (haveResumePosition) {
             player.seekTo(resumeWindow, resumePosition);
         }
+        playbackStatsCollector.startSession(self.srcUri);
         player.prepare(mediaSource, !haveResumePosition, false);
+        startupTracer.onPrepared();
         playerNeedsSource = false;
 
         reLayout(exoPlayerView);
@@ -697,11 +757,11 @@ class ReactExoplayerView extends FrameLayout implements
         startBufferCheckTimer();
     }
 
-    private DrmSessionManager buildDrmSessionManager(UUID uuid, String licenseUrl, String[] keyRequestPropertiesArray) throws UnsupportedDrmException {
+    private DefaultDrmSessionManager buildDrmSessionManager(UUID uuid, String licenseUrl, String[] keyRequestPropertiesArray) throws UnsupportedDrmException {
         return buildDrmSessionManager(uuid, licenseUrl, keyRequestPropertiesArray, 0);
     }
 
-    private DrmSessionManager buildDrmSessionManager(UUID uuid, String licenseUrl, String[] keyRequestPropertiesArray, int retryCount) throws UnsupportedDrmException {
+    private DefaultDrmSessionManager buildDrmSessionManager(UUID uuid, String licenseUrl, String[] keyRequestPropertiesArray, int retryCount) throws UnsupportedDrmException {
         if (Util.SDK_INT < 18) {
             return null;
         }
@@ -714,9 +774,11 @@ class ReactExoplayerView extends FrameLayout implements
                 }
             }
             FrameworkMediaDrm mediaDrm = FrameworkMediaDrm.newInstance(uuid);
-            if (hasDrmFailed) {
-                // When DRM fails using L1 we want to switch to L3
-                mediaDrm.setPropertyString("securityLevel", "L3");
+            // When DRM fails using L1 we want to switch to L3, devices known to fail start with L3
+            String securityLevel = hasDrmFailed
+                    ? WidevineCapabilities.SECURITY_LEVEL_L3 : WidevineCapabilities.getForcedSecurityLevel();
+            if (securityLevel != null && C.WIDEVINE_UUID.equals(uuid)) {
+                mediaDrm.setPropertyString("securityLevel", securityLevel);
             }
             return new DefaultDrmSessionManager(uuid, mediaDrm, drmCallback, null, false, 3);
         } catch(UnsupportedDrmException ex) {
@@ -741,9 +803,9 @@ class ReactExoplayerView extends FrameLayout implements
                 : uri.getLastPathSegment());
         config.setDisableDisconnectError(this.disableDisconnectError);
 
-        MediaItem.Builder mediaItemBuilder = new MediaItem.Builder().setUri(uri);
-
-        MediaItem mediaItem = mediaItemBuilder.build();
+        // Downloaded assets are played from the offline cache whatever their type, with the
+        // stream keys of the downloaded tracks
+        MediaItem mediaItem = AssetPersistenceManager.mediaItemForUri(uri);
 
         DrmSessionManagerProvider drmProvider = null;
         if (drmSessionManager != null) {
@@ -759,30 +821,30 @@ class ReactExoplayerView extends FrameLayout implements
         switch (type) {
             case CONTENT_TYPE_SS:
                 return new SsMediaSource.Factory(
-                        new DefaultSsChunkSource.Factory(mediaDataSourceFactory),
-                        buildDataSourceFactory(false)
+                        new DefaultSsChunkSource.Factory(AssetPersistenceManager.getDataSourceFactory(mediaDataSourceFactory)),
+                        AssetPersistenceManager.getDataSourceFactory(buildDataSourceFactory(false))
                 ).setDrmSessionManagerProvider(drmProvider)
                  .setLoadErrorHandlingPolicy(
                         config.buildLoadErrorHandlingPolicy(minLoadRetryCount)
                 ).createMediaSource(mediaItem);
             case CONTENT_TYPE_DASH:
                 return new DashMediaSource.Factory(
-                        new DefaultDashChunkSource.Factory(mediaDataSourceFactory),
-                        buildDataSourceFactory(false)
+                        new DefaultDashChunkSource.Factory(AssetPersistenceManager.getDataSourceFactory(mediaDataSourceFactory)),
+                        AssetPersistenceManager.getDataSourceFactory(buildManifestDataSourceFactory(buildDataSourceFactory(false)))
                 ).setDrmSessionManagerProvider(drmProvider)
                  .setLoadErrorHandlingPolicy(
                         config.buildLoadErrorHandlingPolicy(minLoadRetryCount)
                 ).createMediaSource(mediaItem);
             case CONTENT_TYPE_HLS:
                 return new HlsMediaSource.Factory(
-                        AssetPersistenceManager.getDataSourceFactory()
-                )
+                        buildHlsDataSourceFactory()
+                ).setDrmSessionManagerProvider(drmProvider)
                  .setLoadErrorHandlingPolicy(
                         config.buildLoadErrorHandlingPolicy(minLoadRetryCount)
-                ).createMediaSource(AssetPersistenceManager.mediaItemForUri(uri));
+                ).createMediaSource(mediaItem);
             case CONTENT_TYPE_OTHER:
                 return new ProgressiveMediaSource.Factory(
-                        mediaDataSourceFactory
+                        AssetPersistenceManager.getDataSourceFactory(mediaDataSourceFactory)
                 ).setDrmSessionManagerProvider(drmProvider)
                  .setLoadErrorHandlingPolicy(
                         config.buildLoadErrorHandlingPolicy(minLoadRetryCount)
@@ -829,17 +891,37 @@ class ReactExoplayerView extends FrameLayout implements
     private void releasePlayer() {
         if (player != null) {
             updateResumePosition();
-            player.release();
-            player.removeListener(this);
-            trackSelector = null;
-            player = null;
+            returnPlayerLease();
         }
-        progressHandler.removeMessages(SHOW_PROGRESS);
+        ProgressTicker.getInstance().remove(this);
         themedReactContext.removeLifecycleEventListener(this);
         audioBecomingNoisyReceiver.removeListener();
         bandwidthMeter.removeEventListener(this);
     }
 
+    // Detaches the player from this view and hands it back to the pool
+    private void returnPlayerLease() {
+        if (player != null) {
+            player.removeListener(this);
+            player.removeAnalyticsListener(startupTracer);
+            playbackStatsCollector.endSession();
+            player.removeAnalyticsListener(playbackStatsCollector);
+            if (eventListener != null) {
+                player.removeListener(eventListener);
+            }
+            exoPlayerView.setPlayer(null);
+            if (playerControlView != null) {
+                playerControlView.setPlayer(null);
+            }
+            // Added again with the next player
+            bandwidthMeter.removeEventListener(this);
+            ExoPlayerPool.release(getContext(), pooledPlayer, config.getPlayerPoolSize());
+            pooledPlayer = null;
+            trackSelector = null;
+            player = null;
+        }
+    }
+
     private boolean requestAudioFocus() {
         if (disableFocus || srcUri == null || this.hasAudioFocus) {
             return true;
@@ -932,10 +1014,62 @@ class ReactExoplayerView extends FrameLayout implements
      * @return A new DataSource factory.
      */
     private DataSource.Factory buildDataSourceFactory(boolean useBandwidthMeter) {
-        return DataSourceUtil.getDefaultDataSourceFactory(this.themedReactContext,
+        return DataSourceUtil.getDefaultDataSourceFactory(this.themedReactContext, config.getMediaHttpClient(),
                 useBandwidthMeter ? bandwidthMeter : null, requestHeaders);
     }
 
+    /**
+     * Returns the DataSource factory for media data, reading through the shared streaming cache
+     * when caching is enabled for the current source.
+     *
+     * @return A DataSource factory for media data.
+     */
+    private DataSource.Factory buildMediaDataSourceFactory() {
+        DataSource.Factory dataSourceFactory = buildDataSourceFactory(true);
+        if (!isStreamingCacheEnabled()) {
+            return dataSourceFactory;
+        }
+        return DataSourceUtil.getStreamingCacheDataSourceFactory(this.themedReactContext,
+                config.getStreamingCacheMaxBytes(), dataSourceFactory);
+    }
+
+    /**
+     * Returns the DataSource factory for manifests, serving manifests fetched by
+     * {@link VideoPreloader} once when caching is enabled for the current source.
+     *
+     * @return A DataSource factory for manifests.
+     */
+    private DataSource.Factory buildManifestDataSourceFactory(DataSource.Factory dataSourceFactory) {
+        return isStreamingCacheEnabled() ? PreloadedManifests.wrap(dataSourceFactory) : dataSourceFactory;
+    }
+
+    /**
+     * Returns the HLS DataSource factory. Downloaded content is always read first, media segments
+     * additionally read through the streaming cache while playlists are fetched fresh, apart from
+     * preloaded ones.
+     *
+     * @return A HlsDataSource factory.
+     */
+    private HlsDataSourceFactory buildHlsDataSourceFactory() {
+        DataSource.Factory playlistDataSourceFactory = buildManifestDataSourceFactory(
+                AssetPersistenceManager.getDataSourceFactory());
+        if (!isStreamingCacheEnabled()) {
+            return new DefaultHlsDataSourceFactory(playlistDataSourceFactory);
+        }
+        DataSource.Factory segmentDataSourceFactory = AssetPersistenceManager.getDataSourceFactory(mediaDataSourceFactory);
+        return dataType -> dataType == C.DATA_TYPE_MEDIA || dataType == C.DATA_TYPE_MEDIA_INITIALIZATION
+                ? segmentDataSourceFactory.createDataSource()
+                : playlistDataSourceFactory.createDataSource();
+    }
+
+    private boolean isStreamingCacheEnabled() {
+        if (!shouldCache || srcUri == null || config.getStreamingCacheMaxBytes() <= 0) {
+            return false;
+        }
+        String scheme = srcUri.getScheme();
+        return "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme);
+    }
+
     /**
      * Returns a new HttpDataSource factory.
      *
@@ -944,7 +1078,8 @@ class ReactExoplayerView extends FrameLayout implements
      * @return A new HttpDataSource factory.
      */
     private HttpDataSource.Factory buildHttpDataSourceFactory(boolean useBandwidthMeter) {
-        return DataSourceUtil.getDefaultHttpDataSourceFactory(this.themedReactContext, useBandwidthMeter ? bandwidthMeter : null, requestHeaders);
+        return DataSourceUtil.getDefaultHttpDataSourceFactory(this.themedReactContext, config.getMediaHttpClient(),
+                useBandwidthMeter ? bandwidthMeter : null, requestHeaders);
     }
 
 
@@ -1028,6 +1163,16 @@ class ReactExoplayerView extends FrameLayout implements
                 clearProgressMessageHandler(); // ensure there is no other message
                 startProgressHandler();
                 videoLoaded();
+                if (C.WIDEVINE_UUID.equals(drmUUID)) {
+                    if (hasDrmFailed && isDeviceDrmError(drmFailureCode)) {
+                        // Only the L3 retry worked, repeated failures spare later sessions the failed startup
+                        WidevineCapabilities.onL1Failed(themedReactContext);
+                        // Counted once per playback, not on every rebuffer
+                        drmFailureCode = PlaybackException.ERROR_CODE_UNSPECIFIED;
+                    } else if (!hasDrmFailed && WidevineCapabilities.getForcedSecurityLevel() == null) {
+                        WidevineCapabilities.onL1Succeeded(themedReactContext);
+                    }
+                }
                 if (selectTrackWhenReady && isUsingContentResolution) {
                     selectTrackWhenReady = false;
                     setSelectedTrack(C.TRACK_TYPE_VIDEO, videoTrackType, videoTrackValue);
@@ -1052,16 +1197,18 @@ class ReactExoplayerView extends FrameLayout implements
     }
 
     private void startProgressHandler() {
-        progressHandler.sendEmptyMessage(SHOW_PROGRESS);
+        // Ads need the ticks to keep the controls hidden even when no one listens to progress
+        if (mProgressUpdateInterval > 0 || controls) {
+            ProgressTicker.getInstance().add(this);
+        }
     }
 
     /*
-        The progress message handler will duplicate recursions of the onProgressMessage handler
-        on change of player state from any state to STATE_READY with playWhenReady is true (when
-        the video is not paused). This clears all existing messages.
+        Registering twice with the ticker is a no-op, but the view has to leave the ticker when it
+        stops being ready so that it does not keep the shared ticker running.
      */
     private void clearProgressMessageHandler() {
-         progressHandler.removeMessages(SHOW_PROGRESS);
+        ProgressTicker.getInstance().remove(this);
     }
 
     private void videoLoaded() {
@@ -1088,21 +1235,44 @@ class ReactExoplayerView extends FrameLayout implements
             ArrayList<Track> textTracks  = getTextTrackInfo();
 
             if (this.contentStartTime != -1L) {
-                ExecutorService es = Executors.newSingleThreadExecutor();
-                es.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        // To prevent ANRs caused by getVideoTrackInfo we run this on a different thread and notify the player only when we're done
-                        ArrayList<VideoTrack> videoTracks = getVideoTrackInfoFromManifest();
-                        if (videoTracks != null) {
-                            isUsingContentResolution = true;
-                        }
-                        eventEmitter.load(duration, currentPosition, width, height,
-                                audioTracks, textTracks, videoTracks, trackId );
-
+                final Uri sourceUri = this.srcUri;
+                final long startTimeUs = (this.contentStartTime * 1000 - 100) * 1000; // s -> us with 100ms offset
+                Object currentManifest = player.getCurrentManifest();
+                DashManifest manifest = currentManifest instanceof DashManifest
+                        ? (DashManifest) currentManifest
+                        : DashManifestCache.get(sourceUri);
+                if (manifest != null) {
+                    // The player already holds the parsed manifest, no need to load it again
+                    DashManifestCache.put(sourceUri, manifest);
+                    ArrayList<VideoTrack> videoTracks = getVideoTrackInfoFromManifest(manifest, startTimeUs);
+                    if (videoTracks != null) {
+                        isUsingContentResolution = true;
                     }
-                });
-                return;
+                    eventEmitter.load(duration, currentPosition, width, height,
+                            audioTracks, textTracks, videoTracks, trackId);
+                    return;
+                }
+                // Manifests bypass the streaming cache, a stale one would describe the wrong tracks
+                final DataSource dataSource = AssetPersistenceManager.getDataSourceFactory(
+                        buildManifestDataSourceFactory(buildDataSourceFactory(false))).createDataSource();
+                try {
+                    config.getTaskExecutor().execute(VideoTaskExecutor.PRIORITY_NORMAL, new Runnable() {
+                        @Override
+                        public void run() {
+                            // To prevent ANRs caused by getVideoTrackInfo we run this on a different thread and notify the player only when we're done
+                            ArrayList<VideoTrack> videoTracks = loadVideoTrackInfoFromManifest(dataSource, sourceUri, startTimeUs);
+                            if (videoTracks != null) {
+                                isUsingContentResolution = true;
+                            }
+                            eventEmitter.load(duration, currentPosition, width, height,
+                                    audioTracks, textTracks, videoTracks, trackId );
+
+                        }
+                    });
+                    return;
+                } catch (RejectedExecutionException e) {
+                    Log.w("ExoPlayer Warning", "Skipping track info from manifest, task queue is full");
+                }
             }
 
             ArrayList<VideoTrack> videoTracks = getVideoTrackInfo();
@@ -1181,72 +1351,53 @@ class ReactExoplayerView extends FrameLayout implements
         return videoTracks;
     }
 
-    private ArrayList<VideoTrack> getVideoTrackInfoFromManifest() {
-        return this.getVideoTrackInfoFromManifest(0);
+    // Fallback for when the player does not expose the manifest, e.g. the source is not DASH.
+    // We retry once in case the manifest request fails from poor network conditions.
+    @WorkerThread
+    private ArrayList<VideoTrack> loadVideoTrackInfoFromManifest(DataSource dataSource, Uri uri, long startTimeUs) {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                DashManifest manifest = DashUtil.loadManifest(dataSource, uri);
+                DashManifestCache.put(uri, manifest);
+                return getVideoTrackInfoFromManifest(manifest, startTimeUs);
+            } catch (Exception e) {}
+        }
+        return null;
     }
 
-    // We need retry count to in case where minefest request fails from poor network conditions
-    @WorkerThread
-    private ArrayList<VideoTrack> getVideoTrackInfoFromManifest(int retryCount) {
-        ExecutorService es = Executors.newSingleThreadExecutor();
-        final DataSource dataSource = this.mediaDataSourceFactory.createDataSource();
-        final Uri sourceUri = this.srcUri;
-        final long startTime = this.contentStartTime * 1000 - 100; // s -> ms with 100ms offset
-
-        Future<ArrayList<VideoTrack>> result = es.submit(new Callable<ArrayList<VideoTrack>>() {
-            DataSource ds = dataSource;
-            Uri uri = sourceUri;
-            long startTimeUs = startTime * 1000; // ms -> us
-
-            public ArrayList<VideoTrack> call() throws Exception {
-                ArrayList<VideoTrack> videoTracks = new ArrayList<>();
-                try  {
-                    DashManifest manifest = DashUtil.loadManifest(this.ds, this.uri);
-                    int periodCount = manifest.getPeriodCount();
-                    for (int i = 0; i < periodCount; i++) {
-                        Period period = manifest.getPeriod(i);
-                        for (int adaptationIndex = 0; adaptationIndex < period.adaptationSets.size(); adaptationIndex++) {
-                            AdaptationSet adaptation = period.adaptationSets.get(adaptationIndex);
-                            if (adaptation.type != C.TRACK_TYPE_VIDEO) {
-                                continue;
-                            }
-                            boolean hasFoundContentPeriod = false;
-                            for (int representationIndex = 0; representationIndex < adaptation.representations.size(); representationIndex++) {
-                                Representation representation = adaptation.representations.get(representationIndex);
-                                Format format = representation.format;
-                                if (isFormatSupported(format)) {
-                                    if (representation.presentationTimeOffsetUs <= startTimeUs) {
-                                        break;
-                                    }
-                                    hasFoundContentPeriod = true;
-                                    VideoTrack videoTrack = new VideoTrack();
-                                    videoTrack.m_width = format.width == Format.NO_VALUE ? 0 : format.width;
-                                    videoTrack.m_height = format.height == Format.NO_VALUE ? 0 : format.height;
-                                    videoTrack.m_bitrate = format.bitrate == Format.NO_VALUE ? 0 : format.bitrate;
-                                    videoTrack.m_codecs = format.codecs != null ? format.codecs : "";
-                                    videoTrack.m_trackId = format.id == null ? String.valueOf(representationIndex) : format.id;
-                                    videoTracks.add(videoTrack);
-                                }
-                            }
-                            if (hasFoundContentPeriod) {
-                                return videoTracks;
-                            }
+    private ArrayList<VideoTrack> getVideoTrackInfoFromManifest(DashManifest manifest, long startTimeUs) {
+        ArrayList<VideoTrack> videoTracks = new ArrayList<>();
+        int periodCount = manifest.getPeriodCount();
+        for (int i = 0; i < periodCount; i++) {
+            Period period = manifest.getPeriod(i);
+            for (int adaptationIndex = 0; adaptationIndex < period.adaptationSets.size(); adaptationIndex++) {
+                AdaptationSet adaptation = period.adaptationSets.get(adaptationIndex);
+                if (adaptation.type != C.TRACK_TYPE_VIDEO) {
+                    continue;
+                }
+                boolean hasFoundContentPeriod = false;
+                for (int representationIndex = 0; representationIndex < adaptation.representations.size(); representationIndex++) {
+                    Representation representation = adaptation.representations.get(representationIndex);
+                    Format format = representation.format;
+                    if (isFormatSupported(format)) {
+                        if (representation.presentationTimeOffsetUs <= startTimeUs) {
+                            break;
                         }
+                        hasFoundContentPeriod = true;
+                        VideoTrack videoTrack = new VideoTrack();
+                        videoTrack.m_width = format.width == Format.NO_VALUE ? 0 : format.width;
+                        videoTrack.m_height = format.height == Format.NO_VALUE ? 0 : format.height;
+                        videoTrack.m_bitrate = format.bitrate == Format.NO_VALUE ? 0 : format.bitrate;
+                        videoTrack.m_codecs = format.codecs != null ? format.codecs : "";
+                        videoTrack.m_trackId = format.id == null ? String.valueOf(representationIndex) : format.id;
+                        videoTracks.add(videoTrack);
                     }
-                } catch (Exception e) {}
-                return null;
-            }
-        });
-
-        try {
-            ArrayList<VideoTrack> results = result.get(3000, TimeUnit.MILLISECONDS);
-            if (results == null && retryCount < 1) {
-                return this.getVideoTrackInfoFromManifest(++retryCount);
+                }
+                if (hasFoundContentPeriod) {
+                    return videoTracks;
+                }
             }
-            es.shutdown();
-            return results;
-        } catch (Exception e) {}
-
+        }
         return null;
     }
 
@@ -1372,7 +1523,12 @@ class ReactExoplayerView extends FrameLayout implements
             case PlaybackException.ERROR_CODE_DRM_PROVISIONING_FAILED:
             case PlaybackException.ERROR_CODE_DRM_SYSTEM_ERROR:
             case PlaybackException.ERROR_CODE_DRM_UNSPECIFIED:
+                // A cached license of this source may be the one rejected, the retry requests a fresh one
+                if (cachedLicenseDrmSessionManager != null) {
+                    cachedLicenseDrmSessionManager.evictCachedLicenses();
+                }
                 if (!hasDrmFailed) {
+                    drmFailureCode = e.errorCode;
                     // When DRM fails to reach the app level certificate server it will fail with a source error so we assume that it is DRM related and try one more time
                     hasDrmFailed = true;
                     playerNeedsSource = true;
@@ -1398,6 +1554,13 @@ class ReactExoplayerView extends FrameLayout implements
         }
     }
 
+    // Errors of the DRM system itself, unlike license server failures they may clear up with L3
+    private static boolean isDeviceDrmError(int errorCode) {
+        return errorCode == PlaybackException.ERROR_CODE_DRM_SYSTEM_ERROR
+                || errorCode == PlaybackException.ERROR_CODE_DRM_DEVICE_REVOKED
+                || errorCode == PlaybackException.ERROR_CODE_DRM_PROVISIONING_FAILED;
+    }
+
     private static boolean isBehindLiveWindow(PlaybackException e) {
         return e.errorCode == PlaybackException.ERROR_CODE_BEHIND_LIVE_WINDOW;
     }
@@ -1421,18 +1584,19 @@ class ReactExoplayerView extends FrameLayout implements
 
     // ReactExoplayerViewManager public api
 
-    public void setSrc(final Uri uri, final String extension, Map<String, String> headers) {
+    public void setSrc(final Uri uri, final String extension, Map<String, String> headers, boolean shouldCache) {
         if (uri != null) {
             boolean isSourceEqual = uri.equals(srcUri);
             hasDrmFailed = false;
+            drmFailureCode = PlaybackException.ERROR_CODE_UNSPECIFIED;
             this.srcUri = uri;
             this.extension = extension;
             this.requestHeaders = headers;
-            this.mediaDataSourceFactory =
-                    DataSourceUtil.getDefaultDataSourceFactory(this.themedReactContext, bandwidthMeter,
-                            this.requestHeaders);
+            this.shouldCache = shouldCache;
+            this.mediaDataSourceFactory = buildMediaDataSourceFactory();
 
             if (!isSourceEqual) {
+                startupTracer.start(uri);
                 reloadSource();
             }
         }
@@ -1440,6 +1604,8 @@ class ReactExoplayerView extends FrameLayout implements
 
     public void clearSrc() {
         if (srcUri != null) {
+            startupTracer.cancel();
+            playbackStatsCollector.endSession();
             player.stop();
             player.clearMediaItems();
             this.srcUri = null;
@@ -1452,20 +1618,30 @@ class ReactExoplayerView extends FrameLayout implements
 
     public void setProgressUpdateInterval(final float progressUpdateInterval) {
         mProgressUpdateInterval = progressUpdateInterval;
+        if (player != null && player.getPlaybackState() == Player.STATE_READY) {
+            clearProgressMessageHandler();
+            startProgressHandler();
+        }
     }
 
     public void setReportBandwidth(boolean reportBandwidth) {
         mReportBandwidth = reportBandwidth;
     }
 
+    public void setPlaybackStatsInterval(final float playbackStatsInterval) {
+        playbackStatsCollector.setReportInterval((long) playbackStatsInterval);
+    }
+
     public void setRawSrc(final Uri uri, final String extension) {
         if (uri != null) {
             boolean isSourceEqual = uri.equals(srcUri);
             this.srcUri = uri;
             this.extension = extension;
+            this.shouldCache = false;
             this.mediaDataSourceFactory = buildDataSourceFactory(true);
 
             if (!isSourceEqual) {
+                startupTracer.start(uri);
                 reloadSource();
             }
         }
@@ -1795,7 +1971,7 @@ class ReactExoplayerView extends FrameLayout implements
         Runtime runtime = Runtime.getRuntime();
         long usedMemory = runtime.totalMemory() - runtime.freeMemory();
         long freeMemory = runtime.maxMemory() - usedMemory;
-        long reserveMemory = (long)minBackBufferMemoryReservePercent * runtime.maxMemory();
+        long reserveMemory = (long) (minBackBufferMemoryReservePercent * runtime.maxMemory());
         if (reserveMemory > freeMemory) {
             // We don't have enough memory in reserve so we will
             Log.w("ExoPlayer Warning", "Not enough reserve memory, setting back buffer to 0ms to reduce memory pressure!");
@@ -1811,6 +1987,9 @@ class ReactExoplayerView extends FrameLayout implements
 
     public void setDisableBuffering(boolean disableBuffering) {
         this.disableBuffering = disableBuffering;
+        if (pooledPlayer != null) {
+            pooledPlayer.loadControl.setDisableBuffering(disableBuffering);
+        }
     }
 
     private void updateFullScreenButtonVisbility() {
@@ -1886,6 +2065,7 @@ class ReactExoplayerView extends FrameLayout implements
     }
 
     public void useSecureView(boolean useSecureView) {
+        this.useSecureView = useSecureView;
         exoPlayerView.useSecureView(useSecureView);
     }
 
@@ -1917,6 +2097,10 @@ class ReactExoplayerView extends FrameLayout implements
         this.drmLicenseHeader = header;
     }
 
+    public void setDrmPssh(@Nullable byte[] pssh) {
+        this.drmPssh = pssh;
+    }
+
 
     @Override
     public void onDrmKeysLoaded(int windowIndex, MediaSource.MediaPeriodId mediaPeriodId) {
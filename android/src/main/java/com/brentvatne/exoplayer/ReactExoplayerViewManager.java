@@ -3,6 +3,7 @@ package com.brentvatne.exoplayer;
 import android.content.Context;
 import android.net.Uri;
 import android.text.TextUtils;
+import android.util.Base64;
 import android.util.Log;
 
 import com.facebook.react.bridge.Dynamic;
@@ -36,7 +37,9 @@ public class ReactExoplayerViewManager extends ViewGroupManager<ReactExoplayerVi
     private static final String PROP_DRM_TYPE = "type";
     private static final String PROP_DRM_LICENSESERVER = "licenseServer";
     private static final String PROP_DRM_HEADERS = "headers";
+    private static final String PROP_DRM_PSSH = "pssh";
     private static final String PROP_SRC_HEADERS = "requestHeaders";
+    private static final String PROP_SRC_SHOULD_CACHE = "shouldCache";
     private static final String PROP_RESIZE_MODE = "resizeMode";
     private static final String PROP_REPEAT = "repeat";
     private static final String PROP_SELECTED_AUDIO_TRACK = "selectedAudioTrack";
@@ -61,6 +64,7 @@ public class ReactExoplayerViewManager extends ViewGroupManager<ReactExoplayerVi
     private static final String PROP_PREVENTS_DISPLAY_SLEEP_DURING_VIDEO_PLAYBACK = "preventsDisplaySleepDuringVideoPlayback";
     private static final String PROP_PROGRESS_UPDATE_INTERVAL = "progressUpdateInterval";
     private static final String PROP_REPORT_BANDWIDTH = "reportBandwidth";
+    private static final String PROP_PLAYBACK_STATS_INTERVAL = "playbackStatsInterval";
     private static final String PROP_SEEK = "seek";
     private static final String PROP_RATE = "rate";
     private static final String PROP_MIN_LOAD_RETRY_COUNT = "minLoadRetryCount";
@@ -142,6 +146,15 @@ public class ReactExoplayerViewManager extends ViewGroupManager<ReactExoplayerVi
                     }
                     videoView.setDrmLicenseHeader(drmKeyRequestPropertiesList.toArray(new String[0]));
                 }
+                byte[] drmPssh = null;
+                if (drm.hasKey(PROP_DRM_PSSH)) {
+                    try {
+                        drmPssh = Base64.decode(drm.getString(PROP_DRM_PSSH), Base64.DEFAULT);
+                    } catch (IllegalArgumentException e) {
+                        Log.w("ReactExoplayerViewManager", "Ignoring drm pssh that is not valid base64", e);
+                    }
+                }
+                videoView.setDrmPssh(drmPssh);
                 videoView.setUseTextureView(false);
             }
         }
@@ -153,6 +166,7 @@ public class ReactExoplayerViewManager extends ViewGroupManager<ReactExoplayerVi
         String uriString = src.hasKey(PROP_SRC_URI) ? src.getString(PROP_SRC_URI) : null;
         String extension = src.hasKey(PROP_SRC_TYPE) ? src.getString(PROP_SRC_TYPE) : null;
         Map<String, String> headers = src.hasKey(PROP_SRC_HEADERS) ? toStringMap(src.getMap(PROP_SRC_HEADERS)) : null;
+        boolean shouldCache = src.hasKey(PROP_SRC_SHOULD_CACHE) && src.getBoolean(PROP_SRC_SHOULD_CACHE);
 
         if (TextUtils.isEmpty(uriString)) {
             videoView.clearSrc();
@@ -163,7 +177,7 @@ public class ReactExoplayerViewManager extends ViewGroupManager<ReactExoplayerVi
             Uri srcUri = Uri.parse(uriString);
 
             if (srcUri != null) {
-                videoView.setSrc(srcUri, extension, headers);
+                videoView.setSrc(srcUri, extension, headers, shouldCache);
             }
         } else {
             int identifier = context.getResources().getIdentifier(
@@ -277,6 +291,11 @@ public class ReactExoplayerViewManager extends ViewGroupManager<ReactExoplayerVi
         videoView.setReportBandwidth(reportBandwidth);
     }
 
+    @ReactProp(name = PROP_PLAYBACK_STATS_INTERVAL, defaultFloat = 0f)
+    public void setPlaybackStatsInterval(final ReactExoplayerView videoView, final float playbackStatsInterval) {
+        videoView.setPlaybackStatsInterval(playbackStatsInterval);
+    }
+
     @ReactProp(name = PROP_SEEK)
     public void setSeek(final ReactExoplayerView videoView, final float seek) {
         videoView.seekTo(Math.round(seek * 1000f));
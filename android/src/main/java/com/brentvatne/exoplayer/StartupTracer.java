@@ -0,0 +1,193 @@
+package com.brentvatne.exoplayer;
+
+import android.net.Uri;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+import androidx.media3.common.C;
+import androidx.media3.common.Player;
+import androidx.media3.common.Tracks;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
+import com.google.android.exoplayer2.source.LoadEventInfo;
+import com.google.android.exoplayer2.source.MediaLoadData;
+
+/**
+ * Measures where startup time goes between setting a source and its first rendered frame and
+ * reports it once per source as an onStartupMetrics event.
+ * Phase methods may be called from any thread, analytics callbacks arrive on the main thread.
+ */
+class StartupTracer implements AnalyticsListener {
+
+    private static final long UNSET = -1;
+
+    private final VideoEventEmitter eventEmitter;
+
+    private Uri uri;
+    private boolean isTracing = false;
+    private boolean usedPooledPlayer = false;
+    private boolean isAudioOnly = false;
+    private long srcSetNs = UNSET;
+    private long playerInitNs = UNSET;
+    private long drmStartNs = UNSET;
+    private long drmEndNs = UNSET;
+    private long sourceInitNs = UNSET;
+    private long prepareNs = UNSET;
+    private long readyNs = UNSET;
+    private long firstFrameNs = UNSET;
+    private long manifestLoadMs = UNSET;
+    private long firstSegmentLoadMs = UNSET;
+    private long licenseStartNs = UNSET;
+    private long licenseEndNs = UNSET;
+
+    StartupTracer(VideoEventEmitter eventEmitter) {
+        this.eventEmitter = eventEmitter;
+    }
+
+    synchronized void start(Uri uri) {
+        this.uri = uri;
+        isTracing = true;
+        usedPooledPlayer = false;
+        isAudioOnly = false;
+        srcSetNs = now();
+        playerInitNs = UNSET;
+        drmStartNs = UNSET;
+        drmEndNs = UNSET;
+        sourceInitNs = UNSET;
+        prepareNs = UNSET;
+        readyNs = UNSET;
+        firstFrameNs = UNSET;
+        manifestLoadMs = UNSET;
+        firstSegmentLoadMs = UNSET;
+        licenseStartNs = UNSET;
+        licenseEndNs = UNSET;
+    }
+
+    synchronized void cancel() {
+        isTracing = false;
+    }
+
+    synchronized void onPlayerInitialized(boolean usedPooledPlayer) {
+        if (isTracing && playerInitNs == UNSET) {
+            playerInitNs = now();
+            this.usedPooledPlayer = usedPooledPlayer;
+        }
+    }
+
+    synchronized void onDrmSetupStarted() {
+        if (isTracing) {
+            drmStartNs = now();
+        }
+    }
+
+    synchronized void onDrmSetupFinished() {
+        if (isTracing) {
+            drmEndNs = now();
+        }
+    }
+
+    synchronized void onSourceInitialized() {
+        if (isTracing) {
+            sourceInitNs = now();
+        }
+    }
+
+    synchronized void onPrepared() {
+        if (isTracing) {
+            prepareNs = now();
+        }
+    }
+
+    // AnalyticsListener implementation
+
+    @Override
+    public synchronized void onPlaybackStateChanged(@NonNull EventTime eventTime, int state) {
+        if (!isTracing || state != Player.STATE_READY || readyNs != UNSET) {
+            return;
+        }
+        readyNs = now();
+        if (isAudioOnly) {
+            emit();
+        }
+    }
+
+    @Override
+    public synchronized void onTracksChanged(@NonNull EventTime eventTime, @NonNull Tracks tracks) {
+        if (!isTracing || tracks.isEmpty()) {
+            return;
+        }
+        // Audio only sources never render a frame, so they are done once ready
+        isAudioOnly = !tracks.containsType(C.TRACK_TYPE_VIDEO);
+        if (isAudioOnly && readyNs != UNSET) {
+            emit();
+        }
+    }
+
+    @Override
+    public synchronized void onRenderedFirstFrame(@NonNull EventTime eventTime, @NonNull Object output, long renderTimeMs) {
+        if (!isTracing) {
+            return;
+        }
+        firstFrameNs = now();
+        if (readyNs == UNSET) {
+            readyNs = firstFrameNs;
+        }
+        emit();
+    }
+
+    @Override
+    public synchronized void onLoadCompleted(@NonNull EventTime eventTime, @NonNull LoadEventInfo loadEventInfo, @NonNull MediaLoadData mediaLoadData) {
+        if (!isTracing) {
+            return;
+        }
+        if (mediaLoadData.dataType == C.DATA_TYPE_MANIFEST && manifestLoadMs == UNSET) {
+            manifestLoadMs = loadEventInfo.loadDurationMs;
+        } else if (mediaLoadData.dataType == C.DATA_TYPE_MEDIA && firstSegmentLoadMs == UNSET) {
+            firstSegmentLoadMs = loadEventInfo.loadDurationMs;
+        }
+    }
+
+    @Override
+    public synchronized void onDrmSessionAcquired(@NonNull EventTime eventTime, int state) {
+        if (isTracing && licenseStartNs == UNSET) {
+            licenseStartNs = now();
+        }
+    }
+
+    @Override
+    public synchronized void onDrmKeysLoaded(@NonNull EventTime eventTime) {
+        if (isTracing && licenseEndNs == UNSET) {
+            licenseEndNs = now();
+        }
+    }
+
+    private void emit() {
+        isTracing = false;
+        WritableMap metrics = Arguments.createMap();
+        metrics.putString("uri", uri != null ? uri.toString() : null);
+        metrics.putBoolean("pooledPlayer", usedPooledPlayer);
+        putDuration(metrics, "playerInit", srcSetNs, playerInitNs);
+        putDuration(metrics, "drmSetup", drmStartNs, drmEndNs);
+        putDuration(metrics, "sourceInit", playerInitNs, sourceInitNs);
+        putDuration(metrics, "prepare", sourceInitNs, prepareNs);
+        putDuration(metrics, "ready", prepareNs, readyNs);
+        putDuration(metrics, "firstFrame", readyNs, firstFrameNs);
+        putDuration(metrics, "license", licenseStartNs, licenseEndNs);
+        metrics.putDouble("manifestLoad", manifestLoadMs);
+        metrics.putDouble("firstSegmentLoad", firstSegmentLoadMs);
+        putDuration(metrics, "total", srcSetNs, firstFrameNs != UNSET ? firstFrameNs : readyNs);
+        eventEmitter.startupMetrics(metrics);
+    }
+
+    // Durations are in ms, -1 when a phase did not happen
+    private static void putDuration(WritableMap metrics, String key, long startNs, long endNs) {
+        double duration = startNs == UNSET || endNs == UNSET ? UNSET : (endNs - startNs) / 1e6;
+        metrics.putDouble(key, duration);
+    }
+
+    private static long now() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+}
@@ -56,6 +56,9 @@ class VideoEventEmitter {
     private static final String EVENT_AUDIO_TRACKS = "onAudioTracks";
     private static final String EVENT_TEXT_TRACKS = "onTextTracks";
     private static final String EVENT_VIDEO_TRACKS = "onVideoTracks";
+    private static final String EVENT_STARTUP_METRICS = "onStartupMetrics";
+    private static final String EVENT_PLAYBACK_STATS = "onPlaybackStats";
+    private static final String EVENT_BUFFER_SIZE_CHANGE = "onBufferSizeChange";
 
     static final String[] Events = {
             EVENT_LOAD_START,
@@ -81,7 +84,10 @@ class VideoEventEmitter {
             EVENT_AUDIO_TRACKS,
             EVENT_TEXT_TRACKS,
             EVENT_VIDEO_TRACKS,
-            EVENT_BANDWIDTH
+            EVENT_BANDWIDTH,
+            EVENT_STARTUP_METRICS,
+            EVENT_PLAYBACK_STATS,
+            EVENT_BUFFER_SIZE_CHANGE
     };
 
     @Retention(RetentionPolicy.SOURCE)
@@ -109,7 +115,10 @@ class VideoEventEmitter {
             EVENT_AUDIO_TRACKS,
             EVENT_TEXT_TRACKS,
             EVENT_VIDEO_TRACKS,
-            EVENT_BANDWIDTH
+            EVENT_BANDWIDTH,
+            EVENT_STARTUP_METRICS,
+            EVENT_PLAYBACK_STATS,
+            EVENT_BUFFER_SIZE_CHANGE
     })
     @interface VideoEvents {
     }
@@ -432,6 +441,22 @@ class VideoEventEmitter {
         receiveEvent(EVENT_AUDIO_BECOMING_NOISY, null);
     }
 
+    void startupMetrics(WritableMap metrics) {
+        receiveEvent(EVENT_STARTUP_METRICS, metrics);
+    }
+
+    void playbackStats(WritableMap stats) {
+        receiveEvent(EVENT_PLAYBACK_STATS, stats);
+    }
+
+    void bufferSizeChange(String memoryPressure, long maxBufferMs, long targetBufferBytes) {
+        WritableMap event = Arguments.createMap();
+        event.putString("memoryPressure", memoryPressure);
+        event.putDouble("maxBufferMs", maxBufferMs);
+        event.putDouble("targetBufferBytes", targetBufferBytes);
+        receiveEvent(EVENT_BUFFER_SIZE_CHANGE, event);
+    }
+
     private void receiveEvent(@VideoEvents String type, WritableMap event) {
         eventEmitter.receiveEvent(viewId, type, event);
     }
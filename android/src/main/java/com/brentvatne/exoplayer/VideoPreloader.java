@@ -0,0 +1,521 @@
+package com.brentvatne.exoplayer;
+
+import static androidx.media3.common.C.CONTENT_TYPE_DASH;
+import static androidx.media3.common.C.CONTENT_TYPE_HLS;
+import static androidx.media3.common.C.CONTENT_TYPE_OTHER;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.bridge.WritableMap;
+import androidx.media3.common.C;
+import com.google.android.exoplayer2.source.dash.DashUtil;
+import com.google.android.exoplayer2.source.dash.DashSegmentIndex;
+import com.google.android.exoplayer2.source.dash.manifest.AdaptationSet;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifest;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifestParser;
+import com.google.android.exoplayer2.source.dash.manifest.Period;
+import com.google.android.exoplayer2.source.dash.manifest.RangedUri;
+import com.google.android.exoplayer2.source.dash.manifest.Representation;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMultivariantPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylistParser;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSourceInputStream;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer2.upstream.ParsingLoadable;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.CacheWriter;
+import com.google.android.exoplayer2.util.UriUtil;
+import com.google.android.exoplayer2.util.Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Warms the streaming cache with the beginning of upcoming sources so that a
+ * {@link ReactExoplayerView} mounted later with the same uri starts from cache. Manifests of on
+ * demand content are handed over through {@link PreloadedManifests}, since they are not cached.
+ */
+public final class VideoPreloader {
+
+    public static final long DEFAULT_PRELOAD_DURATION_MS = 5000;
+    public static final long DEFAULT_PRELOAD_BYTES = 2 * 1024 * 1024;
+
+    private static final String TAG = "VideoPreloader";
+    private static final int MAX_PARALLEL_PRELOADS = 2;
+    private static final int MAX_QUEUED_PRELOADS = 16;
+    // Finished items are kept for their stats until this many newer ones exist
+    private static final int MAX_TRACKED_ITEMS = 64;
+    // Same share of the bandwidth estimate AdaptiveTrackSelection uses for its initial pick
+    private static final float BANDWIDTH_FRACTION = 0.7f;
+
+    public enum PreloadStatus {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED,
+        CANCELLED
+    }
+
+    private static final VideoTaskExecutor executor = new VideoTaskExecutor(
+            TAG, MAX_PARALLEL_PRELOADS, MAX_QUEUED_PRELOADS, Thread.MIN_PRIORITY);
+
+    // Guarded by itself, oldest first
+    private static final Map<String, PreloadItem> items = new LinkedHashMap<String, PreloadItem>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreloadItem> eldest) {
+            return size() > MAX_TRACKED_ITEMS;
+        }
+    };
+    private static final ArrayList<Consumer<PreloadItem>> listeners = new ArrayList<>();
+
+    private VideoPreloader() {
+    }
+
+    public static final class PreloadItem {
+        public final String uri;
+        volatile PreloadStatus status = PreloadStatus.QUEUED;
+        volatile long bytesCached = 0;
+        volatile long cachedDurationMs = 0;
+        volatile long loadTimeMs = 0;
+        volatile boolean playedFromCache = false;
+        volatile boolean played = false;
+        @Nullable volatile String error;
+
+        private volatile boolean cancelled = false;
+        @Nullable private volatile CacheWriter cacheWriter;
+
+        PreloadItem(String uri) {
+            this.uri = uri;
+        }
+
+        public PreloadStatus getStatus() {
+            return status;
+        }
+
+        public WritableMap getDataForJS() {
+            WritableMap map = Arguments.createMap();
+            map.putString("uri", uri);
+            map.putString("status", status.name());
+            map.putDouble("bytes", bytesCached);
+            map.putDouble("duration", cachedDurationMs);
+            map.putDouble("loadTime", loadTimeMs);
+            map.putBoolean("played", played);
+            map.putBoolean("cacheHit", playedFromCache);
+            if (error != null) {
+                map.putString("error", error);
+            }
+            return map;
+        }
+
+        private void cancel() {
+            cancelled = true;
+            CacheWriter writer = cacheWriter;
+            if (writer != null) {
+                writer.cancel();
+            }
+        }
+    }
+
+    public static void addListener(Consumer<PreloadItem> listener) {
+        synchronized (listeners) {
+            listeners.add(listener);
+        }
+    }
+
+    public static void removeListener(Consumer<PreloadItem> listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+
+    private static void runListeners(PreloadItem item) {
+        synchronized (listeners) {
+            for (Consumer<PreloadItem> listener : listeners) {
+                listener.accept(item);
+            }
+        }
+    }
+
+    /**
+     * Queues the beginning of the given source for caching. Only one preload per uri is kept,
+     * an existing item is returned as is unless it failed or was cancelled.
+     *
+     * @throws RejectedExecutionException when the preload queue is full
+     */
+    public static PreloadItem preload(ReactContext context, ReactExoplayerConfig config, String uriString,
+                                      @Nullable String extension, long durationMs, long maxBytes,
+                                      @Nullable Map<String, String> headers) {
+        if (config.getStreamingCacheMaxBytes() <= 0) {
+            throw new IllegalStateException("Streaming cache is disabled");
+        }
+        PreloadItem item;
+        synchronized (items) {
+            PreloadItem existing = items.get(uriString);
+            if (existing != null
+                    && existing.status != PreloadStatus.FAILED
+                    && existing.status != PreloadStatus.CANCELLED) {
+                return existing;
+            }
+            item = new PreloadItem(uriString);
+            // Re-inserted so that the map stays ordered by age
+            items.remove(uriString);
+            items.put(uriString, item);
+        }
+        DataSource.Factory upstreamFactory = DataSourceUtil.getDefaultDataSourceFactory(context,
+                config.getMediaHttpClient(), null, headers);
+        CacheDataSource.Factory cacheDataSourceFactory = DataSourceUtil.getStreamingCacheDataSourceFactory(
+                context, config.getStreamingCacheMaxBytes(), upstreamFactory);
+        DefaultBandwidthMeter bandwidthMeter = config.getBandwidthMeter();
+        try {
+            executor.execute(VideoTaskExecutor.PRIORITY_LOW, () -> runPreload(item, extension, cacheDataSourceFactory, upstreamFactory,
+                    bandwidthMeter.getBitrateEstimate(), durationMs, maxBytes));
+        } catch (RejectedExecutionException e) {
+            synchronized (items) {
+                items.remove(uriString);
+            }
+            throw e;
+        }
+        return item;
+    }
+
+    public static void cancel(String uriString) {
+        PreloadItem item;
+        synchronized (items) {
+            item = items.get(uriString);
+        }
+        if (item == null) {
+            return;
+        }
+        item.cancel();
+        if (item.status == PreloadStatus.QUEUED) {
+            item.status = PreloadStatus.CANCELLED;
+            runListeners(item);
+        }
+    }
+
+    public static List<PreloadItem> getItems() {
+        synchronized (items) {
+            return new ArrayList<>(items.values());
+        }
+    }
+
+    /**
+     * Called when a player starts loading the given source. Records whether the preload served
+     * the start of playback and stops any remaining preload work for that uri.
+     */
+    static void onPlaybackStarted(Uri uri, boolean readsFromCache) {
+        PreloadItem item;
+        synchronized (items) {
+            item = items.remove(uri.toString());
+        }
+        if (item == null) {
+            return;
+        }
+        item.played = true;
+        item.playedFromCache = readsFromCache && item.bytesCached > 0;
+        if (item.status == PreloadStatus.QUEUED || item.status == PreloadStatus.RUNNING) {
+            item.cancel();
+        }
+        runListeners(item);
+    }
+
+    private static void runPreload(PreloadItem item, @Nullable String extension,
+                                   CacheDataSource.Factory cacheDataSourceFactory,
+                                   DataSource.Factory upstreamFactory, long bitrateEstimate,
+                                   long durationMs, long maxBytes) {
+        if (item.cancelled) {
+            return;
+        }
+        item.status = PreloadStatus.RUNNING;
+        long startTimeMs = SystemClock.elapsedRealtime();
+        Uri uri = Uri.parse(item.uri);
+        int type = Util.inferContentType(!TextUtils.isEmpty(extension) ? "." + extension
+                : uri.getLastPathSegment());
+        try {
+            switch (type) {
+                case CONTENT_TYPE_HLS:
+                    preloadHls(item, uri, cacheDataSourceFactory, upstreamFactory, bitrateEstimate, durationMs, maxBytes);
+                    break;
+                case CONTENT_TYPE_DASH:
+                    preloadDash(item, uri, cacheDataSourceFactory, upstreamFactory, bitrateEstimate, durationMs, maxBytes);
+                    break;
+                case CONTENT_TYPE_OTHER:
+                    cacheRange(item, cacheDataSourceFactory, new DataSpec.Builder()
+                            .setUri(uri)
+                            .setLength(maxBytes)
+                            .build());
+                    break;
+                default:
+                    Log.w(TAG, "Preloading is not supported for content type " + type);
+                    break;
+            }
+            item.status = item.cancelled ? PreloadStatus.CANCELLED : PreloadStatus.COMPLETED;
+        } catch (Exception e) {
+            if (item.cancelled) {
+                item.status = PreloadStatus.CANCELLED;
+            } else {
+                Log.w(TAG, "Failed to preload " + item.uri, e);
+                item.error = e.toString();
+                item.status = PreloadStatus.FAILED;
+            }
+        }
+        item.loadTimeMs = SystemClock.elapsedRealtime() - startTimeMs;
+        runListeners(item);
+    }
+
+    private static void preloadHls(PreloadItem item, Uri uri, CacheDataSource.Factory cacheDataSourceFactory,
+                                   DataSource.Factory upstreamFactory, long bitrateEstimate,
+                                   long durationMs, long maxBytes) throws IOException {
+        ArrayList<ManifestData> manifests = new ArrayList<>();
+        HlsPlaylist playlist = loadManifest(upstreamFactory, new HlsPlaylistParser(), uri, manifests);
+        ArrayList<Uri> mediaPlaylistUris = new ArrayList<>();
+        HlsMultivariantPlaylist multivariantPlaylist = HlsMultivariantPlaylist.EMPTY;
+        if (playlist instanceof HlsMultivariantPlaylist) {
+            multivariantPlaylist = (HlsMultivariantPlaylist) playlist;
+            HlsMultivariantPlaylist.Variant variant = selectVariant(multivariantPlaylist.variants, bitrateEstimate);
+            if (variant != null) {
+                mediaPlaylistUris.add(variant.url);
+            }
+            for (HlsMultivariantPlaylist.Rendition audio : multivariantPlaylist.audios) {
+                if (audio.url != null) {
+                    // Only the first demuxed audio rendition is preloaded
+                    mediaPlaylistUris.add(audio.url);
+                    break;
+                }
+            }
+        }
+
+        ArrayList<HlsMediaPlaylist> mediaPlaylists = new ArrayList<>();
+        for (Uri mediaPlaylistUri : mediaPlaylistUris) {
+            mediaPlaylists.add((HlsMediaPlaylist) loadManifest(upstreamFactory,
+                    new HlsPlaylistParser(multivariantPlaylist, null), mediaPlaylistUri, manifests));
+        }
+        if (playlist instanceof HlsMediaPlaylist) {
+            mediaPlaylists.add((HlsMediaPlaylist) playlist);
+        }
+        boolean isLive = false;
+        for (HlsMediaPlaylist mediaPlaylist : mediaPlaylists) {
+            isLive |= !mediaPlaylist.hasEndTag;
+        }
+        if (!isLive && !item.cancelled) {
+            // Handed over before the segments so that a player mounted meanwhile gets them
+            handOverManifests(manifests);
+        }
+        for (HlsMediaPlaylist mediaPlaylist : mediaPlaylists) {
+            preloadHlsSegments(item, mediaPlaylist, cacheDataSourceFactory, durationMs, maxBytes);
+        }
+    }
+
+    private static void preloadHlsSegments(PreloadItem item, HlsMediaPlaylist playlist,
+                                           CacheDataSource.Factory cacheDataSourceFactory,
+                                           long durationMs, long maxBytes) throws IOException {
+        if (!playlist.hasEndTag) {
+            // Live playback starts close to the live edge, the first segments are never played
+            return;
+        }
+        long cachedDurationUs = 0;
+        HlsMediaPlaylist.Segment lastInitializationSegment = null;
+        for (HlsMediaPlaylist.Segment segment : playlist.segments) {
+            if (item.cancelled || cachedDurationUs >= durationMs * 1000 || item.bytesCached >= maxBytes) {
+                break;
+            }
+            if (segment.initializationSegment != null && segment.initializationSegment != lastInitializationSegment) {
+                lastInitializationSegment = segment.initializationSegment;
+                cacheRange(item, cacheDataSourceFactory, buildHlsDataSpec(playlist, segment.initializationSegment));
+            }
+            cacheRange(item, cacheDataSourceFactory, buildHlsDataSpec(playlist, segment));
+            cachedDurationUs += segment.durationUs;
+        }
+        item.cachedDurationMs = Math.max(item.cachedDurationMs, cachedDurationUs / 1000);
+    }
+
+    private static DataSpec buildHlsDataSpec(HlsMediaPlaylist playlist, HlsMediaPlaylist.Segment segment) {
+        return new DataSpec.Builder()
+                .setUri(UriUtil.resolveToUri(playlist.baseUri, segment.url))
+                .setPosition(segment.byteRangeOffset)
+                .setLength(segment.byteRangeLength)
+                .build();
+    }
+
+    private static void preloadDash(PreloadItem item, Uri uri, CacheDataSource.Factory cacheDataSourceFactory,
+                                    DataSource.Factory upstreamFactory, long bitrateEstimate,
+                                    long durationMs, long maxBytes) throws IOException {
+        ArrayList<ManifestData> manifests = new ArrayList<>();
+        DashManifest manifest = loadManifest(upstreamFactory, new DashManifestParser(), uri, manifests);
+        if (manifest.dynamic || manifest.getPeriodCount() == 0) {
+            // Live playback starts close to the live edge, the first segments are never played
+            return;
+        }
+        if (!item.cancelled) {
+            handOverManifests(manifests);
+            DashManifestCache.put(uri, manifest);
+        }
+        Period period = manifest.getPeriod(0);
+        long periodDurationUs = manifest.getPeriodDurationUs(0);
+        Representation video = null;
+        Representation audio = null;
+        for (AdaptationSet adaptationSet : period.adaptationSets) {
+            if (adaptationSet.type == C.TRACK_TYPE_VIDEO && video == null) {
+                video = selectRepresentation(adaptationSet.representations, bitrateEstimate);
+            } else if (adaptationSet.type == C.TRACK_TYPE_AUDIO && audio == null && !adaptationSet.representations.isEmpty()) {
+                audio = adaptationSet.representations.get(0);
+            }
+        }
+        if (video != null) {
+            preloadDashRepresentation(item, video, periodDurationUs, cacheDataSourceFactory, durationMs, maxBytes);
+        }
+        if (audio != null) {
+            preloadDashRepresentation(item, audio, periodDurationUs, cacheDataSourceFactory, durationMs, maxBytes);
+        }
+    }
+
+    private static void preloadDashRepresentation(PreloadItem item, Representation representation,
+                                                  long periodDurationUs,
+                                                  CacheDataSource.Factory cacheDataSourceFactory,
+                                                  long durationMs, long maxBytes) throws IOException {
+        String baseUrl = representation.baseUrls.get(0).url;
+        RangedUri initializationUri = representation.getInitializationUri();
+        if (initializationUri != null) {
+            cacheRange(item, cacheDataSourceFactory, DashUtil.buildDataSpec(representation, baseUrl, initializationUri, 0));
+        }
+        DashSegmentIndex index = representation.getIndex();
+        if (index == null) {
+            // Single segment representation, chunks are byte ranges of a single file
+            RangedUri indexUri = representation.getIndexUri();
+            if (indexUri != null) {
+                cacheRange(item, cacheDataSourceFactory, DashUtil.buildDataSpec(representation, baseUrl, indexUri, 0));
+            }
+            if (item.bytesCached < maxBytes) {
+                RangedUri mediaUri = new RangedUri(null, 0, maxBytes - item.bytesCached);
+                cacheRange(item, cacheDataSourceFactory, DashUtil.buildDataSpec(representation, baseUrl, mediaUri, 0));
+            }
+            return;
+        }
+        long segmentCount = index.getSegmentCount(periodDurationUs);
+        long firstSegmentNum = index.getFirstSegmentNum();
+        long cachedDurationUs = 0;
+        for (long segmentNum = firstSegmentNum;
+             segmentCount == DashSegmentIndex.INDEX_UNBOUNDED || segmentNum < firstSegmentNum + segmentCount;
+             segmentNum++) {
+            if (item.cancelled || cachedDurationUs >= durationMs * 1000 || item.bytesCached >= maxBytes) {
+                break;
+            }
+            cacheRange(item, cacheDataSourceFactory,
+                    DashUtil.buildDataSpec(representation, baseUrl, index.getSegmentUrl(segmentNum), 0));
+            cachedDurationUs += index.getDurationUs(segmentNum, periodDurationUs);
+        }
+        item.cachedDurationMs = Math.max(item.cachedDurationMs, cachedDurationUs / 1000);
+    }
+
+    private static final class ManifestData {
+        final Uri uri;
+        final Uri resolvedUri;
+        final byte[] data;
+
+        ManifestData(Uri uri, Uri resolvedUri, byte[] data) {
+            this.uri = uri;
+            this.resolvedUri = resolvedUri;
+            this.data = data;
+        }
+    }
+
+    // Loads and parses a manifest, keeping its raw bytes for the player
+    private static <T> T loadManifest(DataSource.Factory upstreamFactory, ParsingLoadable.Parser<T> parser,
+                                      Uri uri, List<ManifestData> manifests) throws IOException {
+        DataSource dataSource = upstreamFactory.createDataSource();
+        DataSourceInputStream inputStream = new DataSourceInputStream(dataSource, new DataSpec(uri));
+        Uri resolvedUri;
+        byte[] data;
+        try {
+            inputStream.open();
+            resolvedUri = dataSource.getUri();
+            data = Util.toByteArray(inputStream);
+        } finally {
+            Util.closeQuietly(inputStream);
+        }
+        if (resolvedUri == null) {
+            resolvedUri = uri;
+        }
+        manifests.add(new ManifestData(uri, resolvedUri, data));
+        return parser.parse(resolvedUri, new ByteArrayInputStream(data));
+    }
+
+    private static void handOverManifests(List<ManifestData> manifests) {
+        for (ManifestData manifest : manifests) {
+            PreloadedManifests.put(manifest.uri, manifest.resolvedUri, manifest.data);
+        }
+    }
+
+    private static void cacheRange(PreloadItem item, CacheDataSource.Factory cacheDataSourceFactory,
+                                   DataSpec dataSpec) throws IOException {
+        if (item.cancelled) {
+            return;
+        }
+        long[] lastBytesCached = {0};
+        CacheWriter cacheWriter = new CacheWriter(
+                cacheDataSourceFactory.createDataSource(),
+                dataSpec,
+                null,
+                (requestLength, bytesCached, newBytesCached) -> {
+                    item.bytesCached += bytesCached - lastBytesCached[0];
+                    lastBytesCached[0] = bytesCached;
+                });
+        item.cacheWriter = cacheWriter;
+        try {
+            cacheWriter.cache();
+        } finally {
+            item.cacheWriter = null;
+        }
+    }
+
+    @Nullable
+    private static HlsMultivariantPlaylist.Variant selectVariant(List<HlsMultivariantPlaylist.Variant> variants,
+                                                                 long bitrateEstimate) {
+        HlsMultivariantPlaylist.Variant selected = null;
+        HlsMultivariantPlaylist.Variant lowest = null;
+        long allowedBitrate = (long) (bitrateEstimate * BANDWIDTH_FRACTION);
+        for (HlsMultivariantPlaylist.Variant variant : variants) {
+            int bitrate = variant.format.bitrate;
+            if (lowest == null || bitrate < lowest.format.bitrate) {
+                lowest = variant;
+            }
+            if (bitrate <= allowedBitrate && (selected == null || bitrate > selected.format.bitrate)) {
+                selected = variant;
+            }
+        }
+        return selected != null ? selected : lowest;
+    }
+
+    @Nullable
+    private static Representation selectRepresentation(List<Representation> representations, long bitrateEstimate) {
+        Representation selected = null;
+        Representation lowest = null;
+        long allowedBitrate = (long) (bitrateEstimate * BANDWIDTH_FRACTION);
+        for (Representation representation : representations) {
+            int bitrate = representation.format.bitrate;
+            if (lowest == null || bitrate < lowest.format.bitrate) {
+                lowest = representation;
+            }
+            if (bitrate <= allowedBitrate && (selected == null || bitrate > selected.format.bitrate)) {
+                selected = representation;
+            }
+        }
+        return selected != null ? selected : lowest;
+    }
+}
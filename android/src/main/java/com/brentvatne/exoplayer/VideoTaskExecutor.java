@@ -0,0 +1,193 @@
+package com.brentvatne.exoplayer;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded executor with named threads used for all background work of the library.
+ * Queued tasks run by priority, then in submission order. Idle threads exit after a while, so an
+ * app that stops playing does not keep threads alive. Work that blocks playback start has its
+ * own executor, see {@link #getStartup()}.
+ */
+public class VideoTaskExecutor implements Executor {
+
+    /** DRM session setup, which blocks playback start */
+    public static final int PRIORITY_HIGH = 0;
+    /** Track and manifest metadata */
+    public static final int PRIORITY_NORMAL = 1;
+    /** Prefetching and other speculative work */
+    public static final int PRIORITY_LOW = 2;
+
+    public static final int UNBOUNDED_QUEUE = Integer.MAX_VALUE;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final int DEFAULT_THREAD_COUNT = 2;
+    private static final int DEFAULT_MAX_QUEUE_SIZE = 32;
+
+    private static VideoTaskExecutor shared;
+    private static VideoTaskExecutor startup;
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong rejectedTaskCount = new AtomicLong();
+
+    public VideoTaskExecutor(String name, int threadCount, int maxQueueSize) {
+        this(name, threadCount, maxQueueSize, Thread.NORM_PRIORITY);
+    }
+
+    public VideoTaskExecutor(String name, int threadCount, int maxQueueSize, int threadPriority) {
+        this.name = name;
+        executor = new ThreadPoolExecutor(
+                threadCount,
+                threadCount,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new BoundedPriorityQueue(maxQueueSize),
+                newThreadFactory(name, threadPriority),
+                (runnable, threadPoolExecutor) -> {
+                    rejectedTaskCount.incrementAndGet();
+                    throw new RejectedExecutionException(threadPoolExecutor.isShutdown()
+                            ? name + " is shut down" : name + " queue is full");
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Executor shared by all players for short tasks such as manifest parsing.
+     */
+    public static synchronized VideoTaskExecutor getShared() {
+        if (shared == null || shared.isShutdown()) {
+            shared = new VideoTaskExecutor("RNVTask", DEFAULT_THREAD_COUNT, DEFAULT_MAX_QUEUE_SIZE);
+        }
+        return shared;
+    }
+
+    /**
+     * Executor reserved for work that blocks playback start, such as DRM setup. Its queue is
+     * unbounded so that startup is never rejected, and it never waits behind network work.
+     */
+    public static synchronized VideoTaskExecutor getStartup() {
+        if (startup == null || startup.isShutdown()) {
+            startup = new VideoTaskExecutor("RNVStartup", DEFAULT_THREAD_COUNT, UNBOUNDED_QUEUE);
+        }
+        return startup;
+    }
+
+    public static ThreadFactory newThreadFactory(String name, int threadPriority) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+            thread.setPriority(threadPriority);
+            return thread;
+        };
+    }
+
+    @Override
+    public void execute(@NonNull Runnable runnable) {
+        execute(PRIORITY_NORMAL, runnable);
+    }
+
+    /**
+     * @throws RejectedExecutionException when the queue is full or the executor is shut down
+     */
+    public void execute(int priority, @NonNull Runnable runnable) {
+        executor.execute(new PrioritizedTask(priority, sequence.getAndIncrement(), runnable));
+    }
+
+    /**
+     * Changes the number of threads, queued tasks start right away when growing.
+     */
+    public void setThreadCount(int threadCount) {
+        // The core size may never exceed the maximum size
+        if (threadCount > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threadCount);
+            executor.setCorePoolSize(threadCount);
+        } else {
+            executor.setCorePoolSize(threadCount);
+            executor.setMaximumPoolSize(threadCount);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getThreadCount() {
+        return executor.getPoolSize();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    public long getCompletedTaskCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    public long getRejectedTaskCount() {
+        return rejectedTaskCount.get();
+    }
+
+    /**
+     * Priority queue refusing offers beyond its capacity, which makes the pool reject the task.
+     */
+    private static final class BoundedPriorityQueue extends PriorityBlockingQueue<Runnable> {
+        private final int capacity;
+
+        BoundedPriorityQueue(int capacity) {
+            this.capacity = capacity;
+        }
+
+        // Only offers grow the queue, so the size check cannot race with another insertion
+        @Override
+        public synchronized boolean offer(Runnable runnable) {
+            return size() < capacity && super.offer(runnable);
+        }
+    }
+
+    private static final class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private final int priority;
+        private final long sequence;
+        private final Runnable runnable;
+
+        PrioritizedTask(int priority, long sequence, Runnable runnable) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            runnable.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
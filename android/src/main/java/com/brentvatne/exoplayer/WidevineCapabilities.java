@@ -0,0 +1,328 @@
+package com.brentvatne.exoplayer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaDrm;
+import android.os.Build;
+import android.util.Log;
+import android.util.Range;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+import androidx.media3.common.C;
+import androidx.media3.common.MimeTypes;
+
+import java.util.ArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Widevine capabilities of the device, probed once in the background and persisted until the
+ * system is updated. Players read the security level that works on the device from here instead
+ * of finding out through a failed startup, and JS reads the values without opening a MediaDrm.
+ */
+public final class WidevineCapabilities {
+
+    private static final String TAG = "WidevineCapabilities";
+    private static final String PREFERENCES_NAME = "RNVWidevineCapabilities";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_SECURITY_LEVEL = "securityLevel";
+    private static final String KEY_HDCP_LEVEL = "hdcpLevel";
+    private static final String KEY_MAX_HDCP_LEVEL = "maxHdcpLevel";
+    private static final String KEY_MAX_SECURE_WIDTH = "maxSecureWidth";
+    private static final String KEY_MAX_SECURE_HEIGHT = "maxSecureHeight";
+    private static final String KEY_L1_FAILURE_COUNT = "l1FailureCount";
+    private static final String KEY_L1_FAILED_AT_MS = "l1FailedAtMs";
+
+    // Consecutive device level failures at L1 before players start with L3
+    private static final int L1_FAILURES_TO_FALL_BACK = 2;
+    // Players try L1 again after this long, the failures may have been transient
+    private static final long L1_FAILED_TTL_MS = 7L * 24 * 60 * 60 * 1000;
+
+    public static final String SECURITY_LEVEL_L1 = "L1";
+    public static final String SECURITY_LEVEL_L3 = "L3";
+
+    private static final Object lock = new Object();
+    @Nullable private static WidevineCapabilities capabilities;
+    private static boolean isProbing = false;
+    private static final ArrayList<Consumer<WidevineCapabilities>> pendingCallbacks = new ArrayList<>();
+
+    // Empty when the device has no Widevine support
+    @Nullable public final String securityLevel;
+    @Nullable public final String hdcpLevel;
+    @Nullable public final String maxHdcpLevel;
+    // Largest video size a secure decoder handles, 0 without secure decoders
+    public final int maxSecureWidth;
+    public final int maxSecureHeight;
+    // Consecutive playbacks that only worked after falling back from L1 to L3, and when the last one did
+    private final int l1FailureCount;
+    private final long l1FailedAtMs;
+
+    private WidevineCapabilities(@Nullable String securityLevel, @Nullable String hdcpLevel,
+                                 @Nullable String maxHdcpLevel, int maxSecureWidth, int maxSecureHeight,
+                                 int l1FailureCount, long l1FailedAtMs) {
+        this.securityLevel = securityLevel;
+        this.hdcpLevel = hdcpLevel;
+        this.maxHdcpLevel = maxHdcpLevel;
+        this.maxSecureWidth = maxSecureWidth;
+        this.maxSecureHeight = maxSecureHeight;
+        this.l1FailureCount = l1FailureCount;
+        this.l1FailedAtMs = l1FailedAtMs;
+    }
+
+    /**
+     * Starts probing in the background unless the capabilities are known already.
+     */
+    public static void probeAsync(Context context) {
+        whenProbed(context, null);
+    }
+
+    /**
+     * Runs the callback with the capabilities, on the calling thread when they are known and on
+     * a background thread once the probe finished otherwise.
+     */
+    public static void whenProbed(Context context, @Nullable Consumer<WidevineCapabilities> callback) {
+        Context applicationContext = context.getApplicationContext();
+        WidevineCapabilities known;
+        synchronized (lock) {
+            known = capabilities;
+            if (known == null) {
+                if (callback != null) {
+                    pendingCallbacks.add(callback);
+                }
+                if (isProbing) {
+                    return;
+                }
+                isProbing = true;
+            }
+        }
+        if (known != null) {
+            if (callback != null) {
+                callback.accept(known);
+            }
+            return;
+        }
+        Runnable probe = () -> {
+            WidevineCapabilities probed;
+            try {
+                probed = load(applicationContext);
+            } catch (RuntimeException e) {
+                // Callers wait for a result, report nothing known for this process
+                Log.w(TAG, "Failed to probe Widevine capabilities", e);
+                probed = new WidevineCapabilities(null, null, null, 0, 0, 0, 0);
+            }
+            onProbed(probed);
+        };
+        try {
+            VideoTaskExecutor.getShared().execute(VideoTaskExecutor.PRIORITY_LOW, probe);
+        } catch (RejectedExecutionException e) {
+            probe.run();
+        }
+    }
+
+    /**
+     * @return The capabilities if the probe finished, null otherwise
+     */
+    @Nullable
+    public static WidevineCapabilities getIfProbed() {
+        synchronized (lock) {
+            return capabilities;
+        }
+    }
+
+    /**
+     * @return The security level players should force, null to keep the device default
+     */
+    @Nullable
+    static String getForcedSecurityLevel() {
+        WidevineCapabilities known = getIfProbed();
+        if (known == null || known.securityLevel == null || SECURITY_LEVEL_L3.equals(known.securityLevel)) {
+            return null;
+        }
+        return known.isL1Failing() ? SECURITY_LEVEL_L3 : null;
+    }
+
+    /**
+     * Records that protected playback failed at the default level with a device level DRM error
+     * and worked with L3. Once this happened {@link #L1_FAILURES_TO_FALL_BACK} times in a row,
+     * later players start with L3 right away for {@link #L1_FAILED_TTL_MS}.
+     */
+    static void onL1Failed(Context context) {
+        WidevineCapabilities known = getIfProbed();
+        if (known == null) {
+            return;
+        }
+        updateL1Failures(context, known, known.l1FailureCount + 1, System.currentTimeMillis());
+    }
+
+    /**
+     * Records that protected playback worked at the default level, which resets the failure count.
+     */
+    static void onL1Succeeded(Context context) {
+        WidevineCapabilities known = getIfProbed();
+        if (known == null || known.l1FailureCount == 0) {
+            return;
+        }
+        updateL1Failures(context, known, 0, 0);
+    }
+
+    private static void updateL1Failures(Context context, WidevineCapabilities known, int l1FailureCount,
+                                         long l1FailedAtMs) {
+        WidevineCapabilities updated = new WidevineCapabilities(known.securityLevel, known.hdcpLevel,
+                known.maxHdcpLevel, known.maxSecureWidth, known.maxSecureHeight, l1FailureCount, l1FailedAtMs);
+        synchronized (lock) {
+            capabilities = updated;
+        }
+        updated.save(context.getApplicationContext());
+    }
+
+    /**
+     * @return Whether players should skip L1, it failed repeatedly and recently
+     */
+    public boolean isL1Failing() {
+        return l1FailureCount >= L1_FAILURES_TO_FALL_BACK
+                && System.currentTimeMillis() - l1FailedAtMs < L1_FAILED_TTL_MS;
+    }
+
+    /**
+     * @return The Widevine level as a number, 0 if unknown or unsupported
+     */
+    public int getLevel() {
+        if (securityLevel == null) {
+            return 0;
+        }
+        switch (securityLevel) {
+            case SECURITY_LEVEL_L1:
+                return 1;
+            case "L2":
+                return 2;
+            case SECURITY_LEVEL_L3:
+                return 3;
+            default:
+                return 0;
+        }
+    }
+
+    public WritableMap getDataForJS() {
+        WritableMap map = Arguments.createMap();
+        map.putInt("level", getLevel());
+        map.putString("securityLevel", securityLevel);
+        map.putString("hdcpLevel", hdcpLevel);
+        map.putString("maxHdcpLevel", maxHdcpLevel);
+        map.putInt("maxSecureWidth", maxSecureWidth);
+        map.putInt("maxSecureHeight", maxSecureHeight);
+        map.putBoolean("l1Failed", isL1Failing());
+        return map;
+    }
+
+    private static void onProbed(WidevineCapabilities probed) {
+        ArrayList<Consumer<WidevineCapabilities>> callbacks;
+        synchronized (lock) {
+            capabilities = probed;
+            isProbing = false;
+            callbacks = new ArrayList<>(pendingCallbacks);
+            pendingCallbacks.clear();
+        }
+        for (Consumer<WidevineCapabilities> callback : callbacks) {
+            callback.accept(probed);
+        }
+    }
+
+    private static WidevineCapabilities load(Context context) {
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        // System updates can change the DRM implementation, probe again after one
+        if (Build.FINGERPRINT.equals(preferences.getString(KEY_FINGERPRINT, null))) {
+            return new WidevineCapabilities(
+                    preferences.getString(KEY_SECURITY_LEVEL, null),
+                    preferences.getString(KEY_HDCP_LEVEL, null),
+                    preferences.getString(KEY_MAX_HDCP_LEVEL, null),
+                    preferences.getInt(KEY_MAX_SECURE_WIDTH, 0),
+                    preferences.getInt(KEY_MAX_SECURE_HEIGHT, 0),
+                    preferences.getInt(KEY_L1_FAILURE_COUNT, 0),
+                    preferences.getLong(KEY_L1_FAILED_AT_MS, 0));
+        }
+        WidevineCapabilities probed = probe();
+        probed.save(context);
+        return probed;
+    }
+
+    private void save(Context context) {
+        context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putString(KEY_FINGERPRINT, Build.FINGERPRINT)
+                .putString(KEY_SECURITY_LEVEL, securityLevel)
+                .putString(KEY_HDCP_LEVEL, hdcpLevel)
+                .putString(KEY_MAX_HDCP_LEVEL, maxHdcpLevel)
+                .putInt(KEY_MAX_SECURE_WIDTH, maxSecureWidth)
+                .putInt(KEY_MAX_SECURE_HEIGHT, maxSecureHeight)
+                .putInt(KEY_L1_FAILURE_COUNT, l1FailureCount)
+                .putLong(KEY_L1_FAILED_AT_MS, l1FailedAtMs)
+                .apply();
+    }
+
+    private static WidevineCapabilities probe() {
+        String securityLevel = null;
+        String hdcpLevel = null;
+        String maxHdcpLevel = null;
+        MediaDrm mediaDrm = null;
+        try {
+            mediaDrm = new MediaDrm(C.WIDEVINE_UUID);
+            securityLevel = mediaDrm.getPropertyString("securityLevel");
+            hdcpLevel = getPropertyString(mediaDrm, "hdcpLevel");
+            maxHdcpLevel = getPropertyString(mediaDrm, "maxHdcpLevel");
+        } catch (Exception e) {
+            Log.w(TAG, "Widevine is not available", e);
+        } finally {
+            if (mediaDrm != null) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                    mediaDrm.close();
+                } else {
+                    mediaDrm.release();
+                }
+            }
+        }
+        int maxSecureWidth = 0;
+        int maxSecureHeight = 0;
+        try {
+            for (MediaCodecInfo codecInfo : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+                if (codecInfo.isEncoder()) {
+                    continue;
+                }
+                for (String mimeType : codecInfo.getSupportedTypes()) {
+                    if (!MimeTypes.isVideo(mimeType)) {
+                        continue;
+                    }
+                    MediaCodecInfo.CodecCapabilities codecCapabilities = codecInfo.getCapabilitiesForType(mimeType);
+                    if (!codecCapabilities.isFeatureSupported(MediaCodecInfo.CodecCapabilities.FEATURE_SecurePlayback)
+                            || codecCapabilities.getVideoCapabilities() == null) {
+                        continue;
+                    }
+                    Range<Integer> widths = codecCapabilities.getVideoCapabilities().getSupportedWidths();
+                    Range<Integer> heights = codecCapabilities.getVideoCapabilities().getSupportedHeights();
+                    if (widths.getUpper() * heights.getUpper() > maxSecureWidth * maxSecureHeight) {
+                        maxSecureWidth = widths.getUpper();
+                        maxSecureHeight = heights.getUpper();
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // Some codec implementations throw when queried, the DRM properties are still valid
+            Log.w(TAG, "Failed to read secure decoder capabilities", e);
+        }
+        return new WidevineCapabilities(securityLevel, hdcpLevel, maxHdcpLevel, maxSecureWidth, maxSecureHeight, 0, 0);
+    }
+
+    // Optional properties throw on devices that do not report them
+    @Nullable
+    private static String getPropertyString(MediaDrm mediaDrm, String property) {
+        try {
+            return mediaDrm.getPropertyString(property);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -3,14 +3,22 @@ package com.brentvatne.exoplayer.persistencemanager;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import androidx.annotation.Nullable;
 import android.util.Log;
 import android.widget.Toast;
 
+import androidx.media3.common.Format;
+import androidx.media3.common.Tracks;
 import com.google.android.exoplayer2.DefaultRenderersFactory;
-import androidx.media3.common.MediaItem;
 import com.google.android.exoplayer2.database.DatabaseProvider;
 import com.google.android.exoplayer2.database.StandaloneDatabaseProvider;
+import com.google.android.exoplayer2.offline.DefaultDownloadIndex;
 import com.google.android.exoplayer2.offline.Download;
 import com.google.android.exoplayer2.offline.DownloadCursor;
 import com.google.android.exoplayer2.offline.DownloadHelper;
@@ -27,16 +35,19 @@ import com.google.android.exoplayer2.upstream.cache.Cache;
 import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
 import com.google.android.exoplayer2.upstream.cache.NoOpCacheEvictor;
 import com.google.android.exoplayer2.upstream.cache.SimpleCache;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public final class AssetDownloadController {
@@ -49,9 +60,15 @@ public final class AssetDownloadController {
 
     public static final String DOWNLOAD_NOTIFICATION_CHANNEL_ID = "download_channel";
     private static final String DOWNLOAD_CONTENT_DIRECTORY = "downloads";
-    private static final String DOWNLOAD_SHARED_PREFS = "downloads";
     private static final String TAG = "AssetDownloadController";
-    private static final Integer maxConcurrentDownloads = 1;
+    private static final int DEFAULT_MAX_PARALLEL_DOWNLOADS = 1;
+    private static final int DEFAULT_MAX_SEGMENT_DOWNLOADS_PER_ASSET = 6;
+    // Manifests fetched at the same time when preparing a batch of downloads
+    private static final int MAX_PARALLEL_PREPARES = 4;
+    // How long an estimated download can be started without preparing it again
+    private static final long PREPARED_DOWNLOAD_TTL_MS = 10 * 60 * 1000;
+    private static final int MAX_PREPARED_DOWNLOADS = 16;
+    private static final long LICENSE_RENEWAL_CHECK_INTERVAL_MS = 6 * 60 * 60 * 1000;
 
     @SuppressLint("StaticFieldLeak")
     private static Context context;
@@ -61,6 +78,9 @@ public final class AssetDownloadController {
     private static File downloadDirectory;
     private static Cache downloadCache;
     private static DownloadManager downloadManager;
+    private static AssetDownloaderFactory downloaderFactory;
+    private static int maxParallelDownloads = DEFAULT_MAX_PARALLEL_DOWNLOADS;
+    private static int maxSegmentDownloadsPerAsset = DEFAULT_MAX_SEGMENT_DOWNLOADS_PER_ASSET;
     private static AssetDownloadNotificationHelper downloadNotificationHelper;
 
     private static DownloadIndex downloadIndex;
@@ -68,14 +88,71 @@ public final class AssetDownloadController {
 
     public static ConcurrentHashMap<String, Download> downloads = new ConcurrentHashMap<>();
     public static ConcurrentHashMap<String, HLSAsset> assets = new ConcurrentHashMap<>();
+    // Maintained alongside assets
+    private static final AssetUrlIndex urlIndex = new AssetUrlIndex();
 
     private static SharedPreferences sharedPreferences;
+    private static AssetStore assetStore;
 
     private static final ArrayList<Runnable> listeners = new ArrayList<>();
 
+    // Saved assets are loaded in the background, these run once they are, on the main thread
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static final ArrayList<Runnable> readyCallbacks = new ArrayList<>();
+    private static boolean isReady = false;
+    // Set when the saved assets could not be read, the asset list is incomplete then
+    @Nullable private static IOException loadError;
+    private static final HashSet<String> removedWhileLoading = new HashSet<>();
+
+    // Stop reasons of downloads held back by the scheduler and of downloads paused by the user
+    private static final int STOP_REASON_QUEUED = 1;
+    private static final int STOP_REASON_PAUSED = 2;
+    // Scheduler state, only accessed from the main thread
+    private static final HashSet<String> pausedIds = new HashSet<>();
+    private static final HashMap<String, Integer> requestedStopReasons = new HashMap<>();
+    private static boolean isRescheduleScheduled = false;
+
+    // Quota state, only accessed from the main thread
+    private static final StorageQuota storageQuota = new StorageQuota();
+    // Assets being removed to make room, counted as freed already
+    private static final HashMap<String, Long> evictingBytes = new HashMap<>();
+    private static final ArrayList<RejectionListener> rejectionListeners = new ArrayList<>();
+
+    private static OfflineLicenseManager licenseManager;
+    // Replaced by the JS module with one on the shared media client, the service may start without it
+    private static volatile Function<Map<String, String>, HttpDataSource.Factory> licenseDataSourceFactoryProvider =
+            AssetDownloadController::buildDefaultLicenseDataSourceFactory;
+    private static final Runnable renewOfflineLicensesRunnable = AssetDownloadController::renewOfflineLicenses;
+
+    // Results of estimateDownload by id, url, bitrate and license url, only accessed from the main thread
+    private static final LinkedHashMap<String, PreparedDownload> preparedDownloads =
+            new LinkedHashMap<String, PreparedDownload>(MAX_PREPARED_DOWNLOADS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedDownload> eldest) {
+                    return size() > MAX_PREPARED_DOWNLOADS;
+                }
+            };
+
+    public interface RejectionListener {
+        /**
+         * Called when a download was refused because it does not fit in the storage quota or on the device
+         */
+        void onDownloadRejected(HLSAsset asset, long requiredBytes, long availableBytes);
+    }
+
     public static int downloadsPerBatchCount = 0;
     public static int downloadsPerBatchCountRemaining = 0;
 
+    /**
+     * @param licenseDataSourceFactoryProvider Factory of offline license requests with the given headers,
+     *                                         used even when the download service initialized first
+     */
+    public static synchronized void init(Context appContext,
+                                         Function<Map<String, String>, HttpDataSource.Factory> licenseDataSourceFactoryProvider) {
+        AssetDownloadController.licenseDataSourceFactoryProvider = licenseDataSourceFactoryProvider;
+        init(appContext);
+    }
+
     public static synchronized void init(Context appContext) {
         if (context != null) {
             Log.d(TAG, "AssetDownloadController is already initialized");
@@ -83,11 +160,14 @@ public final class AssetDownloadController {
         }
 
         context = appContext.getApplicationContext();
+        licenseManager = new OfflineLicenseManager(
+                headers -> licenseDataSourceFactoryProvider.apply(headers), AssetDownloadController::onLicenseUpdated);
 
         sharedPreferences = context.getSharedPreferences("AssetDownloadData", Context.MODE_PRIVATE);
 
         httpDataSourceFactory = new DefaultHttpDataSource.Factory();
         databaseProvider = new StandaloneDatabaseProvider(context);
+        assetStore = new AssetStore(databaseProvider);
         downloadDirectory = new File(
                 context.getFilesDir(),
                 DOWNLOAD_CONTENT_DIRECTORY
@@ -101,26 +181,433 @@ public final class AssetDownloadController {
                 new DefaultDataSource.Factory(context, httpDataSourceFactory),
                 downloadCache
         );
+        downloaderFactory = new AssetDownloaderFactory(
+                new CacheDataSource.Factory()
+                        .setCache(downloadCache)
+                        .setUpstreamDataSourceFactory(httpDataSourceFactory),
+                maxSegmentDownloadsPerAsset
+        );
         downloadManager = new DownloadManager(
                 context,
-                databaseProvider,
-                downloadCache,
-                httpDataSourceFactory,
-                Executors.newFixedThreadPool(6)
+                new DefaultDownloadIndex(databaseProvider),
+                downloaderFactory
         );
         downloadManager.addListener(new DownloadManagerListener());
-        downloadManager.setMaxParallelDownloads(maxConcurrentDownloads);
+        downloadManager.setMaxParallelDownloads(maxParallelDownloads);
         downloadIndex = downloadManager.getDownloadIndex();
 
         AssetDownloadService.addProgressListener(AssetDownloadController::onProgressChanged);
 
-        loadDownloads();
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager != null) {
+            connectivityManager.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    mainHandler.post(AssetDownloadController::retryMissingLicenses);
+                }
+            });
+        }
+
+        // The store's own thread keeps the library scan away from player startup work
+        assetStore.execute(AssetDownloadController::loadDownloads);
+    }
+
+    /**
+     * Runs the callback on the main thread once the saved assets have been loaded.
+     */
+    public static void whenReady(Runnable callback) {
+        mainHandler.post(() -> {
+            if (isReady) {
+                callback.run();
+            } else {
+                readyCallbacks.add(callback);
+            }
+        });
+    }
+
+    /**
+     * @return The error reading the saved assets, null if they were read or are still loading
+     */
+    @Nullable
+    public static IOException getLoadError() {
+        return loadError;
+    }
+
+    /**
+     * @param maxParallelDownloads Number of assets downloading at the same time
+     * @param maxSegmentDownloadsPerAsset Upper bound of concurrent segment downloads per asset
+     */
+    public static synchronized void setDownloadConcurrency(int maxParallelDownloads, int maxSegmentDownloadsPerAsset) {
+        AssetDownloadController.maxParallelDownloads = Math.max(maxParallelDownloads, 1);
+        AssetDownloadController.maxSegmentDownloadsPerAsset = Math.max(maxSegmentDownloadsPerAsset, 1);
+        if (downloadManager != null) {
+            downloadManager.setMaxParallelDownloads(AssetDownloadController.maxParallelDownloads);
+            downloaderFactory.setMaxSegmentDownloads(AssetDownloadController.maxSegmentDownloadsPerAsset);
+            scheduleReschedule();
+        }
     }
 
     // Actions
 
     public static void downloadAsset(HLSAsset asset, int bitrate) {
+        downloadAssets(Collections.singletonList(new PendingDownload(asset, bitrate)));
+    }
+
+    /**
+     * Prepares the downloads concurrently, then saves and adds all of them at once.
+     */
+    public static void downloadAssets(List<PendingDownload> pendingDownloads) {
+        if (pendingDownloads.isEmpty()) {
+            return;
+        }
+        PrepareBatch batch = new PrepareBatch(pendingDownloads);
+        mainHandler.post(batch::prepareNext);
+    }
+
+    public static void deleteAsset(HLSAsset asset) {
+        Download download = findDownloadByAsset(asset);
+        if (download != null && download.state != Download.STATE_FAILED) {
+            DownloadService.sendRemoveDownload(
+                    context, AssetDownloadService.class, download.request.id, false);
+        }
+    }
 
+    // Removals are reported one by one, their writes and JS events are coalesced downstream
+    public static void deleteAssets(List<HLSAsset> assets) {
+        for (HLSAsset asset : assets) {
+            deleteAsset(asset);
+        }
+    }
+
+    public static void cancelAssetDownload(HLSAsset asset) {
+        Download download = findDownloadByAsset(asset);
+        if (download != null && download.state != Download.STATE_FAILED) {
+            DownloadService.sendRemoveDownload(
+                    context, AssetDownloadService.class, download.request.id, false);
+        }
+    }
+
+    /**
+     * @param quotaBytes Maximum size of the offline content, 0 for no limit besides the free space of the device
+     * @param policy One of "reject", "evictLeastRecentlyPlayed" and "evictOldestFinished"
+     * @param freeSpaceMarginBytes Space downloads leave free on the device
+     * @param unknownSizeBytes Size assumed for downloads whose size could not be estimated, 0 to
+     *                         admit them without checking for room
+     */
+    public static void setStorageQuota(long quotaBytes, @Nullable String policy, long freeSpaceMarginBytes,
+                                       long unknownSizeBytes) {
+        mainHandler.post(() -> {
+            storageQuota.quotaBytes = Math.max(quotaBytes, 0);
+            storageQuota.policy = StorageQuota.Policy.fromString(policy);
+            storageQuota.freeSpaceMarginBytes = Math.max(freeSpaceMarginBytes, 0);
+            storageQuota.unknownSizeBytes = Math.max(unknownSizeBytes, 0);
+            if (isReady && storageQuota.policy != StorageQuota.Policy.REJECT) {
+                // Makes room when the new quota is below the current usage
+                List<HLSAsset> evictions = storageQuota.selectEvictions(
+                        0, getAvailableBytes(), getEvictionCandidates(), downloads);
+                if (evictions != null) {
+                    evict(evictions);
+                }
+            }
+        });
+    }
+
+    public static void markAssetPlayed(HLSAsset asset) {
+        asset.lastPlayedMs = System.currentTimeMillis();
+        assetStore.save(asset);
+    }
+
+    /**
+     * Downloads with a higher priority run first, downloads of equal priority in the order they were added.
+     */
+    public static void setAssetPriority(HLSAsset asset, int priority) {
+        mainHandler.post(() -> {
+            asset.priority = priority;
+            saveAssetData(asset);
+            reschedule();
+        });
+    }
+
+    public static void pauseAssetDownload(HLSAsset asset) {
+        mainHandler.post(() -> {
+            setPaused(asset, true);
+            reschedule();
+        });
+    }
+
+    public static void resumeAssetDownload(HLSAsset asset) {
+        mainHandler.post(() -> {
+            setPaused(asset, false);
+            reschedule();
+        });
+    }
+
+    public static void pauseAllDownloads() {
+        mainHandler.post(() -> {
+            for (Download download : downloads.values()) {
+                HLSAsset asset = findAssetByDownload(download);
+                if (asset != null && isSchedulable(download)) {
+                    setPaused(asset, true);
+                }
+            }
+            reschedule();
+        });
+    }
+
+    public static void resumeAllDownloads() {
+        mainHandler.post(() -> {
+            for (HLSAsset asset : assets.values()) {
+                setPaused(asset, false);
+            }
+            reschedule();
+        });
+    }
+
+    // Batch download preparation
+
+    public static final class PendingDownload {
+        final HLSAsset asset;
+        final int bitrate;
+
+        public PendingDownload(HLSAsset asset, int bitrate) {
+            this.asset = asset;
+            this.bitrate = bitrate;
+        }
+    }
+
+    // Prepares a batch of downloads, at most MAX_PARALLEL_PREPARES at a time, on the main thread
+    private static final class PrepareBatch {
+        private final ArrayDeque<PendingDownload> pendingDownloads;
+        private final DefaultRenderersFactory renderersFactory = new DefaultRenderersFactory(context);
+        private final ArrayList<HLSAsset> preparedAssets = new ArrayList<>();
+        private final ArrayList<DownloadRequest> requests = new ArrayList<>();
+        // Formats carrying the DRM init data of protected assets, by asset id
+        private final HashMap<String, Format> drmFormats = new HashMap<>();
+        private int preparingCount = 0;
+        private boolean hasInvalidDownloads = false;
+
+        PrepareBatch(List<PendingDownload> pendingDownloads) {
+            this.pendingDownloads = new ArrayDeque<>(pendingDownloads);
+        }
+
+        void prepareNext() {
+            while (preparingCount < MAX_PARALLEL_PREPARES && !pendingDownloads.isEmpty()) {
+                prepare(pendingDownloads.poll());
+            }
+            if (preparingCount == 0 && pendingDownloads.isEmpty()) {
+                finish();
+            }
+        }
+
+        private void prepare(PendingDownload pendingDownload) {
+            HLSAsset asset = pendingDownload.asset;
+            preparingCount++;
+            prepareDownloadRequest(asset, pendingDownload.bitrate, renderersFactory, true, new PrepareCallback() {
+                @Override
+                public void onPrepared(@Nullable DownloadRequest request, long estimatedBytes, @Nullable Format drmFormat) {
+                    if (request == null) {
+                        hasInvalidDownloads = true;
+                    } else {
+                        asset.streamKeys = request.streamKeys;
+                        asset.estimatedSize = estimatedBytes;
+                        preparedAssets.add(asset);
+                        requests.add(request);
+                        if (drmFormat != null) {
+                            drmFormats.put(asset.id, drmFormat);
+                        }
+                    }
+                    preparingCount--;
+                    prepareNext();
+                }
+
+                @Override
+                public void onError(IOException e) {
+                    Log.w(TAG, "Failed to prepare download of " + asset.id, e);
+                    preparingCount--;
+                    prepareNext();
+                }
+            });
+        }
+
+        private void finish() {
+            if (hasInvalidDownloads) {
+                Toast.makeText(
+                        context,
+                        "Oops, something is wrong with this video, it cannot be downloaded at the moment, sorry!",
+                        Toast.LENGTH_LONG
+                ).show();
+            }
+            // Admitted assets are added right away so that they count as reserved for the next ones
+            ArrayList<HLSAsset> admittedAssets = new ArrayList<>();
+            ArrayList<DownloadRequest> admittedRequests = new ArrayList<>();
+            for (int i = 0; i < preparedAssets.size(); i++) {
+                HLSAsset asset = preparedAssets.get(i);
+                if (admit(asset)) {
+                    putAsset(asset);
+                    admittedAssets.add(asset);
+                    admittedRequests.add(requests.get(i));
+                    Format drmFormat = drmFormats.get(asset.id);
+                    if (drmFormat != null) {
+                        licenseManager.acquire(asset, drmFormat);
+                    } else if (asset.drmLicenseUrl != null) {
+                        Log.w(TAG, "No DRM init data found for " + asset.id + ", it will need an online license");
+                    }
+                }
+            }
+            if (admittedRequests.isEmpty()) {
+                return;
+            }
+            assetStore.saveAll(admittedAssets);
+            downloadsPerBatchCount += admittedRequests.size();
+            downloadsPerBatchCountRemaining += admittedRequests.size();
+
+            for (DownloadRequest request : admittedRequests) {
+                // Held back until the scheduler picks it by priority
+                requestedStopReasons.put(request.id, STOP_REASON_QUEUED);
+                DownloadService.sendAddDownload(
+                        context,
+                        AssetDownloadService.class,
+                        request,
+                        STOP_REASON_QUEUED,
+                        false
+                );
+            }
+            runListeners();
+        }
+    }
+
+    // Preparation and estimation
+
+    interface PrepareCallback {
+        /**
+         * @param request Request of the selected tracks, null if no track matches the bitrate
+         * @param estimatedBytes Estimated size of the download, -1 if unknown
+         * @param drmFormat Selected format with DRM init data, null for clear content
+         */
+        void onPrepared(@Nullable DownloadRequest request, long estimatedBytes, @Nullable Format drmFormat);
+
+        void onError(IOException e);
+    }
+
+    public interface EstimateCallback {
+        void onEstimated(long estimatedBytes, long availableBytes);
+
+        void onError(Exception e);
+    }
+
+    private static final class PreparedDownload {
+        @Nullable final DownloadRequest request;
+        final long estimatedBytes;
+        @Nullable final Format drmFormat;
+        final long preparedAtMs;
+
+        PreparedDownload(@Nullable DownloadRequest request, long estimatedBytes, @Nullable Format drmFormat,
+                         long preparedAtMs) {
+            this.request = request;
+            this.estimatedBytes = estimatedBytes;
+            this.drmFormat = drmFormat;
+            this.preparedAtMs = preparedAtMs;
+        }
+    }
+
+    /**
+     * Prepares the manifest and selects the tracks a download of the asset at the bitrate would fetch.
+     * The result is kept for a while so that downloading after estimating does not prepare again.
+     */
+    public static void estimateDownload(HLSAsset asset, int bitrate, EstimateCallback callback) {
+        mainHandler.post(() -> prepareDownloadRequest(
+                asset, bitrate, new DefaultRenderersFactory(context), false, new PrepareCallback() {
+                    @Override
+                    public void onPrepared(@Nullable DownloadRequest request, long estimatedBytes, @Nullable Format drmFormat) {
+                        if (request == null) {
+                            callback.onError(new IllegalStateException("No track matches the bitrate " + bitrate));
+                            return;
+                        }
+                        callback.onEstimated(estimatedBytes, getAvailableBytes());
+                    }
+
+                    @Override
+                    public void onError(IOException e) {
+                        callback.onError(e);
+                    }
+                }));
+    }
+
+    // Runs on the main thread, as do the callbacks
+    private static void prepareDownloadRequest(HLSAsset asset, int bitrate, DefaultRenderersFactory renderersFactory,
+                                               boolean consumeCached, PrepareCallback callback) {
+        String key = asset.id + "|" + asset.hlsUrl + "|" + bitrate + "|" + asset.drmLicenseUrl;
+        PreparedDownload prepared = preparedDownloads.get(key);
+        if (prepared != null && SystemClock.elapsedRealtime() - prepared.preparedAtMs < PREPARED_DOWNLOAD_TTL_MS) {
+            if (consumeCached) {
+                preparedDownloads.remove(key);
+            }
+            callback.onPrepared(prepared.request, prepared.estimatedBytes, prepared.drmFormat);
+            return;
+        }
+        preparedDownloads.remove(key);
+
+        DefaultTrackSelector.Parameters parameters = buildTrackSelectorParameters(bitrate);
+        DownloadHelper downloadHelper = DownloadHelper.forMediaItem(
+                context,
+                asset.getMediaItemForDownload(),
+                renderersFactory,
+                dataSourceFactory
+        );
+        downloadHelper.prepare(new DownloadHelper.Callback() {
+            @Override
+            public void onPrepared(DownloadHelper helper) {
+                Log.d(TAG, "Download prepared");
+
+                // Progressive media has no periods to select tracks in and is downloaded whole
+                for (int i = 0; i < helper.getPeriodCount(); i++) {
+                    helper.clearTrackSelections(i);
+                    helper.addTrackSelection(i, parameters);
+                }
+
+                DownloadRequest request = helper.getDownloadRequest(asset.id, null);
+                long estimatedBytes = DownloadSizeEstimator.estimateBytes(helper);
+                Format drmFormat = asset.drmLicenseUrl != null ? findDrmFormat(helper) : null;
+                helper.release();
+
+                if (request.streamKeys.isEmpty() && !asset.isProgressive()) {
+                    Log.wtf(TAG, "No tracks selected, this will cause all tracks to be downloaded. Bailing out");
+                    request = null;
+                } else {
+                    Log.d(TAG, "stream keys size:" + request.streamKeys.size());
+                }
+                if (!consumeCached) {
+                    preparedDownloads.put(key, new PreparedDownload(
+                            request, estimatedBytes, drmFormat, SystemClock.elapsedRealtime()));
+                }
+                callback.onPrepared(request, estimatedBytes, drmFormat);
+            }
+
+            @Override
+            public void onPrepareError(DownloadHelper helper, IOException e) {
+                helper.release();
+                callback.onError(e);
+            }
+        });
+    }
+
+    @Nullable
+    private static Format findDrmFormat(DownloadHelper helper) {
+        for (int periodIndex = 0; periodIndex < helper.getPeriodCount(); periodIndex++) {
+            for (Tracks.Group group : helper.getTracks(periodIndex).getGroups()) {
+                for (int i = 0; i < group.length; i++) {
+                    Format format = group.getTrackFormat(i);
+                    if (group.isTrackSelected(i) && format.drmInitData != null) {
+                        return format;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static DefaultTrackSelector.Parameters buildTrackSelectorParameters(int bitrate) {
         trackSelectorParameters = DownloadHelper
                 .getDefaultTrackSelectorParameters(context)
                 .buildUpon()
@@ -129,81 +616,251 @@ public final class AssetDownloadController {
                 .setMaxVideoBitrate(bitrate + bitrate/3)
                 .setExceedVideoConstraintsIfNecessary(true)
                 .build();
+        return trackSelectorParameters;
+    }
+
+    // Storage quota
+
+    /**
+     * @return Bytes used by offline content
+     */
+    public static long getUsedBytes() {
+        return downloadCache.getCacheSpace();
+    }
+
+    /**
+     * @return Free bytes on the storage of the offline content
+     */
+    public static long getFreeBytes() {
+        return downloadDirectory.getUsableSpace();
+    }
+
+    /**
+     * @return Bytes still to be written by unfinished downloads, with the size assumed for
+     * downloads of unknown size
+     */
+    public static long getReservedBytes() {
+        long reservedBytes = 0;
+        for (HLSAsset asset : assets.values()) {
+            if (asset.status != HLSAsset.HLSAssetStatus.FINISHED
+                    && asset.status != HLSAsset.HLSAssetStatus.FAILED) {
+                reservedBytes += Math.max(storageQuota.getRequiredBytes(asset.estimatedSize) - (long) asset.size, 0);
+            }
+        }
+        return reservedBytes;
+    }
+
+    public static long getQuotaBytes() {
+        return storageQuota.quotaBytes;
+    }
+
+    public static long getFreeSpaceMarginBytes() {
+        return storageQuota.freeSpaceMarginBytes;
+    }
+
+    /**
+     * @param estimatedBytes Estimated size of a download, negative if unknown
+     * @return Bytes the quota counts for the download
+     */
+    public static long getRequiredBytes(long estimatedBytes) {
+        return storageQuota.getRequiredBytes(estimatedBytes);
+    }
+
+    // Bytes a new download may use without eviction
+    private static long getAvailableBytes() {
+        long reservedBytes = getReservedBytes();
+        long evictedBytes = 0;
+        for (long bytes : evictingBytes.values()) {
+            evictedBytes += bytes;
+        }
+        long availableBytes = getFreeBytes() - storageQuota.freeSpaceMarginBytes - reservedBytes + evictedBytes;
+        if (storageQuota.quotaBytes > 0) {
+            availableBytes = Math.min(
+                    availableBytes,
+                    storageQuota.quotaBytes - getUsedBytes() - reservedBytes + evictedBytes);
+        }
+        return availableBytes;
+    }
+
+    private static List<HLSAsset> getEvictionCandidates() {
+        ArrayList<HLSAsset> candidates = new ArrayList<>();
+        for (HLSAsset asset : assets.values()) {
+            if (asset.status == HLSAsset.HLSAssetStatus.FINISHED && !evictingBytes.containsKey(asset.id)) {
+                candidates.add(asset);
+            }
+        }
+        return candidates;
+    }
+
+    private static void evict(List<HLSAsset> evictions) {
+        for (HLSAsset asset : evictions) {
+            Log.d(TAG, "Evicting " + asset.id + " to make room for new downloads");
+            evictingBytes.put(asset.id, (long) asset.size);
+            deleteAsset(asset);
+        }
+    }
+
+    // Makes room for the asset according to the quota policy, false if it does not fit
+    private static boolean admit(HLSAsset asset) {
+        long requiredBytes = storageQuota.getRequiredBytes(asset.estimatedSize);
+        long availableBytes = getAvailableBytes();
+        List<HLSAsset> evictions = storageQuota.selectEvictions(
+                requiredBytes, availableBytes, getEvictionCandidates(), downloads);
+        if (evictions == null) {
+            Log.w(TAG, "Refusing download of " + asset.id + ", " + requiredBytes + " bytes needed, "
+                    + availableBytes + " bytes available");
+            for (RejectionListener listener : rejectionListeners) {
+                listener.onDownloadRejected(asset, requiredBytes, availableBytes);
+            }
+            return false;
+        }
+        evict(evictions);
+        return true;
+    }
+
+    public static void addRejectionListener(RejectionListener listener) {
+        rejectionListeners.add(listener);
+    }
+
+    // Offline licenses
 
-        MediaItem mediaItem = asset.getMediaItemForDownload();
+    private static void onLicenseUpdated(HLSAsset asset) {
+        if (assets.get(asset.id) != asset) {
+            // Deleted while the license was requested
+            licenseManager.release(asset);
+            return;
+        }
+        saveAssetData(asset);
+    }
+
+    // Requests the licenses that failed or were lost with the process, on startup and when the network comes back
+    private static void retryMissingLicenses() {
+        if (!isReady) {
+            return;
+        }
+        for (HLSAsset asset : assets.values()) {
+            if (asset.drmLicenseUrl != null && asset.keySetId == null && !asset.isAcquiringLicense
+                    && asset.status != HLSAsset.HLSAssetStatus.FAILED) {
+                retryLicense(asset);
+            }
+        }
+    }
 
+    // The DRM init data is not saved, it is read again from the manifest, which is cached once downloaded
+    private static void retryLicense(HLSAsset asset) {
+        asset.isAcquiringLicense = true;
         DownloadHelper downloadHelper = DownloadHelper.forMediaItem(
                 context,
-                mediaItem,
+                asset.getMediaItemForDownload(),
                 new DefaultRenderersFactory(context),
                 dataSourceFactory
         );
-
-
         downloadHelper.prepare(new DownloadHelper.Callback() {
             @Override
             public void onPrepared(DownloadHelper helper) {
-                Log.d(TAG, "Download prepared");
-
-                for (int i = 0; i < helper.getPeriodCount(); i++) {
-                    helper.clearTrackSelections(i);
+                Format drmFormat = findDrmFormat(helper);
+                helper.release();
+                if (assets.get(asset.id) != asset) {
+                    asset.isAcquiringLicense = false;
+                } else if (drmFormat != null) {
+                    licenseManager.acquire(asset, drmFormat);
+                } else {
+                    Log.w(TAG, "No DRM init data found for " + asset.id + ", it will need an online license");
+                    licenseManager.onAcquireFailed(asset);
                 }
+            }
 
+            @Override
+            public void onPrepareError(DownloadHelper helper, IOException e) {
+                helper.release();
+                Log.w(TAG, "Failed to read the DRM init data of " + asset.id, e);
+                if (assets.get(asset.id) == asset) {
+                    licenseManager.onAcquireFailed(asset);
+                } else {
+                    asset.isAcquiringLicense = false;
+                }
+            }
+        });
+    }
 
-                helper.addTrackSelection(0, trackSelectorParameters);
-
-                DownloadRequest request = helper
-                        .getDownloadRequest(
-                                asset.id,
-                                null
-                        );
+    // Renews licenses close to expiry now and checks again periodically while the process lives
+    private static void renewOfflineLicenses() {
+        licenseManager.renewExpiring(assets.values());
+        mainHandler.removeCallbacks(renewOfflineLicensesRunnable);
+        mainHandler.postDelayed(renewOfflineLicensesRunnable, LICENSE_RENEWAL_CHECK_INTERVAL_MS);
+    }
 
+    // Scheduling
 
-                if (request.streamKeys.isEmpty()) {
-                    Log.wtf(TAG, "No tracks selected, this will cause all tracks to be downloaded. Bailing out");
-                    Toast.makeText(
-                            context,
-                            "Oops, something is wrong with this video, it cannot be downloaded at the moment, sorry!",
-                            Toast.LENGTH_LONG
-                    ).show();
-                    return;
-                }
+    private static void setPaused(HLSAsset asset, boolean paused) {
+        if (asset.paused == paused) {
+            return;
+        }
+        asset.paused = paused;
+        if (paused) {
+            pausedIds.add(asset.id);
+        } else {
+            pausedIds.remove(asset.id);
+        }
+        runListeners();
+    }
 
-                Log.d(TAG, "stream keys size:" + request.streamKeys.size());
-                asset.streamKeys = request.streamKeys;
-                saveAssetData(asset);
-                downloadsPerBatchCount++;
-                downloadsPerBatchCountRemaining++;
+    private static boolean isSchedulable(Download download) {
+        return download.state != Download.STATE_COMPLETED
+                && download.state != Download.STATE_FAILED
+                && download.state != Download.STATE_REMOVING;
+    }
 
-                DownloadService.sendAddDownload(
-                        context,
-                        AssetDownloadService.class,
-                        request,
-                        false
-                );
+    private static void scheduleReschedule() {
+        mainHandler.post(() -> {
+            if (!isRescheduleScheduled) {
+                isRescheduleScheduled = true;
+                mainHandler.post(AssetDownloadController::reschedule);
             }
+        });
+    }
 
-            @Override
-            public void onPrepareError(DownloadHelper helper, IOException e) {
-                Log.w(TAG, "Something happened");
+    // Lets the downloads with the highest priority run and holds back the others with a stop reason
+    private static void reschedule() {
+        isRescheduleScheduled = false;
+        if (!isReady) {
+            // Rescheduled once loaded
+            return;
+        }
+        ArrayList<Download> queuedDownloads = new ArrayList<>();
+        for (Download download : downloads.values()) {
+            if (!isSchedulable(download)) {
+                continue;
+            }
+            if (pausedIds.contains(download.request.id)) {
+                requestStopReason(download.request.id, STOP_REASON_PAUSED);
+            } else {
+                queuedDownloads.add(download);
             }
+        }
+        Collections.sort(queuedDownloads, (a, b) -> {
+            int priorityOrder = Integer.compare(getPriority(b), getPriority(a));
+            return priorityOrder != 0 ? priorityOrder : Long.compare(a.startTimeMs, b.startTimeMs);
         });
+        for (int i = 0; i < queuedDownloads.size(); i++) {
+            requestStopReason(
+                    queuedDownloads.get(i).request.id,
+                    i < maxParallelDownloads ? Download.STOP_REASON_NONE : STOP_REASON_QUEUED);
+        }
     }
 
-    public static void deleteAsset(HLSAsset asset) {
-        Download download = findDownloadByAsset(asset);
-        if (download != null && download.state != Download.STATE_FAILED) {
-            DownloadService.sendRemoveDownload(
-                    context, AssetDownloadService.class, download.request.id, false);
-        }
+    private static int getPriority(Download download) {
+        HLSAsset asset = findAssetByDownload(download);
+        return asset != null ? asset.priority : 0;
     }
 
-    public static void cancelAssetDownload(HLSAsset asset) {
-        Download download = findDownloadByAsset(asset);
-        if (download != null && download.state != Download.STATE_FAILED) {
-            DownloadService.sendRemoveDownload(
-                    context, AssetDownloadService.class, download.request.id, false);
+    private static void requestStopReason(String id, int stopReason) {
+        Integer requestedStopReason = requestedStopReasons.get(id);
+        if (requestedStopReason != null && requestedStopReason == stopReason) {
+            return;
         }
+        requestedStopReasons.put(id, stopReason);
+        DownloadService.sendSetStopReason(context, AssetDownloadService.class, id, stopReason, false);
     }
 
     // Helpers
@@ -213,6 +870,23 @@ public final class AssetDownloadController {
         return assets.get(id);
     }
 
+    @Nullable
+    public static HLSAsset findAssetByUri(Uri uri) {
+        String id = urlIndex.findAssetId(uri);
+        return id != null ? assets.get(id) : null;
+    }
+
+    /**
+     * Sets which parts of a source URL must match the URL of a downloaded asset for it to be played offline.
+     *
+     * @param ignoreQuery Whether the query is ignored altogether
+     * @param ignoredQueryParameters Query parameters ignored otherwise, such as signing tokens
+     */
+    public static void setUrlMatchingPolicy(boolean ignoreQuery, List<String> ignoredQueryParameters) {
+        // The index is changed on the main thread only, like the assets
+        mainHandler.post(() -> urlIndex.setPolicy(ignoreQuery, ignoredQueryParameters, assets.values()));
+    }
+
     @Nullable
     public static Download findDownloadByAsset(HLSAsset asset) {
         return downloads.get(asset.id);
@@ -240,62 +914,108 @@ public final class AssetDownloadController {
     }
 
     private static void saveAssetData(HLSAsset asset) {
-        assets.put(asset.id, asset);
-        Gson gson = new Gson();
-        String json = gson.toJson(assets);
-        sharedPreferences
-                .edit()
-                .putString(DOWNLOAD_SHARED_PREFS, json)
-                .apply();
+        putAsset(asset);
+        assetStore.save(asset);
 
         runListeners();
     }
 
+    private static void putAsset(HLSAsset asset) {
+        HLSAsset previousAsset = assets.put(asset.id, asset);
+        if (previousAsset != null && previousAsset != asset) {
+            urlIndex.remove(previousAsset);
+            // A download again under the same id gets its own license
+            if (previousAsset.keySetId != null && previousAsset.keySetId != asset.keySetId) {
+                licenseManager.release(previousAsset);
+            }
+        }
+        urlIndex.add(asset);
+    }
+
     private static void deleteAssetData(HLSAsset asset) {
         assets.remove(asset.id);
-        Gson gson = new Gson();
-        String json = gson.toJson(assets);
-        sharedPreferences
-                .edit()
-                .putString(DOWNLOAD_SHARED_PREFS, json)
-                .apply();
+        licenseManager.release(asset);
+        urlIndex.remove(asset);
+        assetStore.delete(asset.id);
 
         runListeners();
     }
 
+    // Reconciles saved assets with the download index in one pass, off the main thread
     private static void loadDownloads() {
+        Map<String, HLSAsset> loadedAssets;
+        IOException assetLoadError = null;
         try {
-            String json = sharedPreferences.getString(DOWNLOAD_SHARED_PREFS,"");
-            if (json == "") {
-                return;
-            }
-            Log.d(TAG,json);
-            Gson gson = new Gson();
-            ConcurrentHashMap<String, HLSAsset> savedAssets = new ConcurrentHashMap<>();
-            savedAssets = gson.fromJson(json, new TypeToken<ConcurrentHashMap<String, HLSAsset>>(){}.getType());
-            if (savedAssets != null) {
-                assets = (ConcurrentHashMap<String, HLSAsset>) savedAssets;
-            }
-        } catch (Exception e) {
-            Log.w(TAG, "Failed to restore saved assets data", e);
-        }
-
-        try (DownloadCursor loadedDownloads = downloadIndex.getDownloads()) {
-            while (loadedDownloads.moveToNext()) {
-                Download download = loadedDownloads.getDownload();
-                downloads.put(download.request.id, download);
-                HLSAsset downloadedAsset = findAssetByDownload(download);
-                if (downloadedAsset != null) {
-                    if (statusMap.get(download.state) != null) {
-                        downloadedAsset.status = statusMap.get(download.state);
-                        downloadedAsset.progress = download.getPercentDownloaded() / 100;
-                        saveAssetData(downloadedAsset);
+            loadedAssets = assetStore.loadAll(sharedPreferences);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load saved assets", e);
+            loadedAssets = new HashMap<>();
+            assetLoadError = e;
+        }
+        Map<String, HLSAsset> savedAssets = loadedAssets;
+        IOException savedAssetsError = assetLoadError;
+        HashMap<String, Download> loadedDownloads = new HashMap<>();
+        ArrayList<HLSAsset> changedAssets = new ArrayList<>();
+
+        try (DownloadCursor cursor = downloadIndex.getDownloads()) {
+            while (cursor.moveToNext()) {
+                Download download = cursor.getDownload();
+                loadedDownloads.put(download.request.id, download);
+                HLSAsset downloadedAsset = savedAssets.get(download.request.id);
+                HLSAsset.HLSAssetStatus assetStatus = statusMap.get(download.state);
+                if (downloadedAsset != null && assetStatus != null) {
+                    float progress = download.getPercentDownloaded() / 100;
+                    if (downloadedAsset.status != assetStatus || downloadedAsset.progress != progress) {
+                        downloadedAsset.status = assetStatus;
+                        downloadedAsset.progress = progress;
+                        changedAssets.add(downloadedAsset);
                     }
                 }
             }
         } catch (IOException e) {
             Log.w(TAG, "Failed to query downloads", e);
         }
+
+        if (!changedAssets.isEmpty()) {
+            assetStore.saveAll(changedAssets);
+        }
+
+        mainHandler.post(() -> {
+            // Assets and downloads added while loading are newer than the saved ones
+            for (HLSAsset asset : savedAssets.values()) {
+                if (removedWhileLoading.contains(asset.id)) {
+                    assetStore.delete(asset.id);
+                } else {
+                    if (assets.putIfAbsent(asset.id, asset) == null) {
+                        urlIndex.add(asset);
+                    }
+                }
+            }
+            for (Download download : loadedDownloads.values()) {
+                if (!removedWhileLoading.contains(download.request.id)) {
+                    downloads.putIfAbsent(download.request.id, download);
+                }
+            }
+            removedWhileLoading.clear();
+            for (Download download : downloads.values()) {
+                requestedStopReasons.putIfAbsent(download.request.id, download.stopReason);
+                HLSAsset asset = assets.get(download.request.id);
+                if (download.stopReason == STOP_REASON_PAUSED && asset != null) {
+                    asset.paused = true;
+                    pausedIds.add(asset.id);
+                }
+            }
+            loadError = savedAssetsError;
+            isReady = true;
+            renewOfflineLicenses();
+            retryMissingLicenses();
+            reschedule();
+            runListeners();
+            for (Runnable callback : readyCallbacks) {
+                callback.run();
+            }
+            readyCallbacks.clear();
+        });
     }
 
     // Progress listener (called by AssetDownloadService)
@@ -304,12 +1024,20 @@ public final class AssetDownloadController {
         for (Download download: progressDownloads) {
             HLSAsset asset = findAssetByDownload(download);
             if (asset == null) {
-                Log.wtf(TAG, "download changed: download doesn't have a matching asset");
+                if (isReady) {
+                    Log.wtf(TAG, "download changed: download doesn't have a matching asset");
+                }
                 return;
             }
             Log.d(TAG, "downloaded:" + download.getBytesDownloaded() / 1000 / 1000 + " MB");
             asset.size = download.getBytesDownloaded();
             asset.progress = download.getPercentDownloaded() / 100;
+            SegmentDownloadPool pool = downloaderFactory.getPool(download.request.id);
+            if (pool != null) {
+                pool.onProgress(download.getBytesDownloaded(), download.getPercentDownloaded(), SystemClock.elapsedRealtime());
+                asset.bytesPerSecond = pool.getBytesPerSecond();
+                asset.etaMs = pool.getEtaMs();
+            }
             saveAssetData(asset);
             downloads.put(download.request.id, download);
         }
@@ -325,9 +1053,21 @@ public final class AssetDownloadController {
                 Download download,
                 Exception finalException
         ) {
+            Download previousDownload = downloads.put(download.request.id, download);
+            requestedStopReasons.putIfAbsent(download.request.id, download.stopReason);
+            if (download.state == Download.STATE_COMPLETED || download.state == Download.STATE_FAILED) {
+                downloaderFactory.releasePool(download.request.id);
+            }
+            // A new download or a finished one changes which downloads should run
+            if (previousDownload == null || isSchedulable(previousDownload) != isSchedulable(download)) {
+                scheduleReschedule();
+            }
             HLSAsset asset = findAssetByDownload(download);
             if (asset == null) {
-                Log.wtf(TAG, "download changed: download doesn't have a matching asset");
+                // Before loading finished the asset is reconciled by loadDownloads
+                if (isReady) {
+                    Log.wtf(TAG, "download changed: download doesn't have a matching asset");
+                }
                 return;
             }
             HLSAsset.HLSAssetStatus assetStatus = statusMap.get(download.state);
@@ -339,19 +1079,31 @@ public final class AssetDownloadController {
             }
             asset.size = download.getBytesDownloaded();
             asset.progress = download.getPercentDownloaded() / 100;
+            if (download.state != Download.STATE_DOWNLOADING) {
+                asset.bytesPerSecond = 0;
+                asset.etaMs = -1;
+            }
             saveAssetData(asset);
-            downloads.put(download.request.id, download);
         }
 
         @Override
         public void onDownloadRemoved(DownloadManager downloadManager, Download download) {
+            downloads.remove(download.request.id);
+            downloaderFactory.releasePool(download.request.id);
+            requestedStopReasons.remove(download.request.id);
+            pausedIds.remove(download.request.id);
+            evictingBytes.remove(download.request.id);
+            scheduleReschedule();
             HLSAsset asset = findAssetByDownload(download);
             if (asset == null) {
-                Log.wtf(TAG, "download removed: download doesn't have a matching asset");
+                if (isReady) {
+                    Log.wtf(TAG, "download removed: download doesn't have a matching asset");
+                } else {
+                    removedWhileLoading.add(download.request.id);
+                }
                 return;
             }
             deleteAssetData(asset);
-            downloads.remove(download.request.id);
         }
 
 
@@ -362,6 +1114,14 @@ public final class AssetDownloadController {
     }
 
 
+    private static HttpDataSource.Factory buildDefaultLicenseDataSourceFactory(@Nullable Map<String, String> headers) {
+        DefaultHttpDataSource.Factory factory = new DefaultHttpDataSource.Factory();
+        if (headers != null) {
+            factory.setDefaultRequestProperties(headers);
+        }
+        return factory;
+    }
+
     // Getters for DownloadService
 
     public static synchronized DownloadManager getDownloadManager(Context context) {
@@ -395,4 +1155,9 @@ public final class AssetDownloadController {
         return dataSourceFactory;
     }
 
+    // Reads downloaded content first and falls back to the given upstream factory
+    public static DataSource.Factory getDataSourceFactory(DataSource.Factory upstreamFactory){
+        return buildReadOnlyCacheDataSource(upstreamFactory, downloadCache);
+    }
+
 }
\ No newline at end of file
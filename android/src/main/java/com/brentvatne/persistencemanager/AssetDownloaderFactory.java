@@ -0,0 +1,53 @@
+package com.brentvatne.exoplayer.persistencemanager;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.offline.DefaultDownloaderFactory;
+import com.google.android.exoplayer2.offline.DownloadRequest;
+import com.google.android.exoplayer2.offline.Downloader;
+import com.google.android.exoplayer2.offline.DownloaderFactory;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives every download its own {@link SegmentDownloadPool}, so the segment concurrency of one
+ * asset adapts independently of the others.
+ */
+final class AssetDownloaderFactory implements DownloaderFactory {
+    private final CacheDataSource.Factory cacheDataSourceFactory;
+    private final ConcurrentHashMap<String, SegmentDownloadPool> pools = new ConcurrentHashMap<>();
+    private volatile int maxSegmentDownloads;
+
+    AssetDownloaderFactory(CacheDataSource.Factory cacheDataSourceFactory, int maxSegmentDownloads) {
+        this.cacheDataSourceFactory = cacheDataSourceFactory;
+        this.maxSegmentDownloads = maxSegmentDownloads;
+    }
+
+    @Override
+    public Downloader createDownloader(DownloadRequest request) {
+        SegmentDownloadPool pool = pools.computeIfAbsent(
+                request.id, id -> new SegmentDownloadPool(id, maxSegmentDownloads));
+        return new DefaultDownloaderFactory(cacheDataSourceFactory, pool.executor).createDownloader(request);
+    }
+
+    void setMaxSegmentDownloads(int maxSegmentDownloads) {
+        this.maxSegmentDownloads = maxSegmentDownloads;
+        for (SegmentDownloadPool pool : pools.values()) {
+            pool.setMaxThreadCount(maxSegmentDownloads);
+        }
+    }
+
+    @Nullable
+    SegmentDownloadPool getPool(String id) {
+        return pools.get(id);
+    }
+
+    // Called once a download stopped for good, a restarted download gets a new pool
+    void releasePool(String id) {
+        SegmentDownloadPool pool = pools.remove(id);
+        if (pool != null) {
+            pool.release();
+        }
+    }
+}
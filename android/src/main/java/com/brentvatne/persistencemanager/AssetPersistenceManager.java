@@ -1,26 +1,61 @@
 package com.brentvatne.exoplayer.persistencemanager;
 
+import android.content.Context;
+import android.net.ConnectivityManager;
 import android.net.Uri;
 import androidx.annotation.Nullable;
 import android.content.pm.ServiceInfo;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 
+import com.brentvatne.ReactBridgeUtils;
+import com.brentvatne.exoplayer.DataSourceUtil;
+import com.brentvatne.exoplayer.ReactExoplayerConfig;
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
 import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
 import androidx.media3.common.MediaItem;
 import com.google.android.exoplayer2.offline.DownloadService;
 import com.google.android.exoplayer2.upstream.DataSource;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+
 public class AssetPersistenceManager extends ReactContextBaseJavaModule  {
     AssetDownloadController assetDownloadController;
     ReactApplicationContext reactContext;
-    static String hlsDownloadsJSEventName = "hlsDownloads";
-    
+    static String hlsDownloadsDeltaJSEventName = "hlsDownloadsDelta";
+    static String hlsDownloadRejectedJSEventName = "hlsDownloadRejected";
+
+    private static final String PROP_FREE_SPACE_MARGIN_BYTES = "freeSpaceMarginBytes";
+    private static final String PROP_UNKNOWN_SIZE_BYTES = "unknownSizeBytes";
+
+    private static final long DEFAULT_DOWNLOAD_EVENT_INTERVAL_MS = 500;
+    // Progress changes below this fraction are not sent on their own
+    private static final float PROGRESS_THRESHOLD = 0.01f;
+
+    // Delta events are coalesced on the main thread, where download changes are reported
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable sendDeltaRunnable = this::sendHLSAssetsDeltaToJS;
+    // Last state of each asset sent to JS
+    private final HashMap<String, SentAssetState> sentAssets = new HashMap<>();
+    private long downloadEventIntervalMs = DEFAULT_DOWNLOAD_EVENT_INTERVAL_MS;
+    private long lastDeltaSentMs = 0;
+    private boolean isDeltaScheduled = false;
+
     @ReactMethod
     public void addListener(String eventName) {
         // silence RN missing listener methods warnings
@@ -37,12 +72,18 @@ public class AssetPersistenceManager extends ReactContextBaseJavaModule  {
                 .emit(eventName, params);
     }
 
-    public AssetPersistenceManager(ReactApplicationContext appContext) {
+    public AssetPersistenceManager(ReactApplicationContext appContext, ReactExoplayerConfig config) {
         super(appContext);
         reactContext = appContext;
 
-        AssetDownloadController.init(appContext);
+        AssetDownloadController.setDownloadConcurrency(
+                config.getMaxParallelDownloads(), config.getMaxSegmentDownloadsPerAsset());
+
+        // Registered first so that the emission after the saved assets are loaded is not missed
         AssetDownloadController.addListener(this::onDownloadsChanged);
+        AssetDownloadController.addRejectionListener(this::onDownloadRejected);
+        AssetDownloadController.init(appContext, drmHeaders -> DataSourceUtil.getDefaultHttpDataSourceFactory(
+                appContext, config.getMediaHttpClient(), null, drmHeaders));
 
         try {
             DownloadService.start(appContext, AssetDownloadService.class);
@@ -67,10 +108,86 @@ public class AssetPersistenceManager extends ReactContextBaseJavaModule  {
         if (existingAsset != null) {
             return;
         }
-        HLSAsset asset = new HLSAsset(id, hlsUrl);
+        HLSAsset asset = new HLSAsset(id, hlsUrl, HLSAsset.inferContentType(hlsUrl, null));
         AssetDownloadController.downloadAsset(asset, bitrate);
     }
 
+    /**
+     * @param streams Array of {id, hlsUrl, bitrate, type}, type is optional
+     */
+    @ReactMethod
+    public void downloadStreams(ReadableArray streams) {
+        ArrayList<AssetDownloadController.PendingDownload> pendingDownloads = new ArrayList<>();
+        HashSet<String> ids = new HashSet<>();
+        for (int i = 0; i < streams.size(); i++) {
+            ReadableMap stream = streams.getMap(i);
+            String id = stream.getString("id");
+            if (!ids.add(id) || AssetDownloadController.findAssetById(id) != null) {
+                continue;
+            }
+            String url = stream.getString("hlsUrl");
+            String type = stream.hasKey("type") ? stream.getString("type") : null;
+            HLSAsset asset = new HLSAsset(id, url, HLSAsset.inferContentType(url, type));
+            if (stream.hasKey("drm") && !stream.isNull("drm")) {
+                ReadableMap drm = stream.getMap("drm");
+                asset.drmLicenseUrl = drm.getString("licenseServer");
+                if (drm.hasKey("headers") && !drm.isNull("headers")) {
+                    ReadableMap headers = drm.getMap("headers");
+                    HashMap<String, String> drmHeaders = new HashMap<>();
+                    ReadableMapKeySetIterator iterator = headers.keySetIterator();
+                    while (iterator.hasNextKey()) {
+                        String key = iterator.nextKey();
+                        drmHeaders.put(key, headers.getString(key));
+                    }
+                    asset.drmHeaders = drmHeaders;
+                }
+            }
+            pendingDownloads.add(new AssetDownloadController.PendingDownload(asset, stream.getInt("bitrate")));
+        }
+        AssetDownloadController.downloadAssets(pendingDownloads);
+    }
+
+    /**
+     * Resolves with the estimated size of downloading the stream at the bitrate and the space
+     * available for it. A download started shortly after reuses the prepared manifest.
+     */
+    @ReactMethod
+    public void estimateDownload(String id, String hlsUrl, int bitrate, Promise promise) {
+        HLSAsset asset = new HLSAsset(id, hlsUrl, HLSAsset.inferContentType(hlsUrl, null));
+        AssetDownloadController.estimateDownload(asset, bitrate, new AssetDownloadController.EstimateCallback() {
+            @Override
+            public void onEstimated(long estimatedBytes, long availableBytes) {
+                ConnectivityManager connectivityManager =
+                        (ConnectivityManager) reactContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+                WritableMap estimate = Arguments.createMap();
+                estimate.putString("id", id);
+                estimate.putDouble("estimatedBytes", estimatedBytes);
+                estimate.putDouble("availableBytes", Math.max(availableBytes, 0));
+                // Unknown sizes fit as far as the size assumed for them does
+                estimate.putBoolean("fits", AssetDownloadController.getRequiredBytes(estimatedBytes) <= availableBytes);
+                estimate.putBoolean("metered", connectivityManager != null && connectivityManager.isActiveNetworkMetered());
+                promise.resolve(estimate);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                promise.reject("ESTIMATE_FAILED", e);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void deleteAssets(ReadableArray ids) {
+        ArrayList<HLSAsset> assets = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            HLSAsset asset = AssetDownloadController.findAssetById(ids.getString(i));
+            if (asset != null) {
+                assets.add(asset);
+            }
+        }
+        AssetDownloadController.deleteAssets(assets);
+    }
+
     @ReactMethod
     public void deleteAsset(String id) {
         HLSAsset asset = AssetDownloadController.findAssetById(id);
@@ -89,13 +206,136 @@ public class AssetPersistenceManager extends ReactContextBaseJavaModule  {
         AssetDownloadController.cancelAssetDownload(asset);
     }
 
+    @ReactMethod
+    public void setPriority(String id, int priority) {
+        HLSAsset asset = AssetDownloadController.findAssetById(id);
+        if (asset == null) {
+            return;
+        }
+        AssetDownloadController.setAssetPriority(asset, priority);
+    }
+
+    @ReactMethod
+    public void pauseDownload(String id) {
+        HLSAsset asset = AssetDownloadController.findAssetById(id);
+        if (asset == null) {
+            return;
+        }
+        AssetDownloadController.pauseAssetDownload(asset);
+    }
+
+    @ReactMethod
+    public void resumeDownload(String id) {
+        HLSAsset asset = AssetDownloadController.findAssetById(id);
+        if (asset == null) {
+            return;
+        }
+        AssetDownloadController.resumeAssetDownload(asset);
+    }
+
+    @ReactMethod
+    public void pauseAllDownloads() {
+        AssetDownloadController.pauseAllDownloads();
+    }
+
+    @ReactMethod
+    public void resumeAllDownloads() {
+        AssetDownloadController.resumeAllDownloads();
+    }
+
     @ReactMethod
     public void getHLSAssetsForJS(Promise promise) {
-        promise.resolve(collectHLSAssetsForJS());
+        AssetDownloadController.whenReady(() -> {
+            if (rejectOnLoadError(promise)) {
+                return;
+            }
+            // Later deltas are relative to this snapshot
+            sentAssets.clear();
+            for (HLSAsset asset : AssetDownloadController.assets.values()) {
+                sentAssets.put(asset.id, new SentAssetState(asset));
+            }
+            promise.resolve(collectHLSAssetsForJS());
+        });
+    }
+
+    /**
+     * @param maxParallelDownloads Number of assets downloading at the same time
+     * @param maxSegmentDownloadsPerAsset Upper bound of concurrent segment downloads per asset
+     */
+    @ReactMethod
+    public void setDownloadConcurrency(int maxParallelDownloads, int maxSegmentDownloadsPerAsset) {
+        AssetDownloadController.setDownloadConcurrency(maxParallelDownloads, maxSegmentDownloadsPerAsset);
+    }
+
+    /**
+     * @param quotaBytes Maximum size of the offline content, 0 for no limit besides the free space of the device
+     * @param policy One of "reject", "evictLeastRecentlyPlayed" and "evictOldestFinished"
+     * @param options freeSpaceMarginBytes, the space left free on the device (0 by default), and
+     *                unknownSizeBytes, the size assumed for downloads whose size could not be
+     *                estimated (1 GB by default, 0 admits them without checking for room)
+     */
+    @ReactMethod
+    public void setStorageQuota(double quotaBytes, String policy, @Nullable ReadableMap options) {
+        AssetDownloadController.setStorageQuota((long) quotaBytes, policy,
+                (long) ReactBridgeUtils.safeGetDouble(options, PROP_FREE_SPACE_MARGIN_BYTES, 0),
+                (long) ReactBridgeUtils.safeGetDouble(options, PROP_UNKNOWN_SIZE_BYTES,
+                        StorageQuota.DEFAULT_UNKNOWN_SIZE_BYTES));
+    }
+
+    /**
+     * @param ignoreQuery Whether source URLs match downloaded assets regardless of their query
+     * @param ignoredQueryParameters Query parameters ignored when matching, such as signing tokens
+     */
+    @ReactMethod
+    public void setUrlMatchingPolicy(boolean ignoreQuery, ReadableArray ignoredQueryParameters) {
+        ArrayList<String> parameters = new ArrayList<>();
+        for (int i = 0; i < ignoredQueryParameters.size(); i++) {
+            parameters.add(ignoredQueryParameters.getString(i));
+        }
+        AssetDownloadController.setUrlMatchingPolicy(ignoreQuery, parameters);
+    }
+
+    @ReactMethod
+    public void getStorageInfo(Promise promise) {
+        AssetDownloadController.whenReady(() -> {
+            WritableMap info = Arguments.createMap();
+            info.putDouble("used", AssetDownloadController.getUsedBytes());
+            info.putDouble("free", AssetDownloadController.getFreeBytes());
+            info.putDouble("reserved", AssetDownloadController.getReservedBytes());
+            info.putDouble("quota", AssetDownloadController.getQuotaBytes());
+            info.putDouble("freeSpaceMargin", AssetDownloadController.getFreeSpaceMarginBytes());
+            promise.resolve(info);
+        });
     }
 
-    public void sendHLSAssetsToJS(){
-        sendEvent(hlsDownloadsJSEventName, collectHLSAssetsForJS());
+    /**
+     * @param intervalMs Minimum interval between two hlsDownloadsDelta events
+     */
+    @ReactMethod
+    public void setDownloadEventInterval(int intervalMs) {
+        handler.post(() -> downloadEventIntervalMs = Math.max(intervalMs, 0));
+    }
+
+    /**
+     * Resolves once the saved assets have been loaded, rejects if they could not be read
+     */
+    @ReactMethod
+    public void whenReady(Promise promise) {
+        AssetDownloadController.whenReady(() -> {
+            if (!rejectOnLoadError(promise)) {
+                promise.resolve(null);
+            }
+        });
+    }
+
+    // A failed load leaves the asset list incomplete, which must not pass for an empty library
+    private static boolean rejectOnLoadError(Promise promise) {
+        IOException loadError = AssetDownloadController.getLoadError();
+        if (loadError == null) {
+            return false;
+        }
+        promise.reject("ASSET_LOAD_FAILED", "Failed to read the saved assets", loadError);
+        return true;
     }
 
     private WritableArray collectHLSAssetsForJS(){
@@ -107,24 +347,127 @@ public class AssetPersistenceManager extends ReactContextBaseJavaModule  {
     }
 
     static public MediaItem mediaItemForUri(Uri uri) {
-        HLSAsset matchingAsset = null;
-        for (HLSAsset asset: AssetDownloadController.assets.values()) {
-            if (Uri.parse(asset.hlsUrl).equals(uri)) {
-                matchingAsset = asset;
-                break;
-            }
-        }
+        HLSAsset matchingAsset = AssetDownloadController.findAssetByUri(uri);
         if (matchingAsset != null) {
+            AssetDownloadController.markAssetPlayed(matchingAsset);
             return matchingAsset.getMediaItem();
         }
         return MediaItem.fromUri(uri);
     }
 
+    /**
+     * @return Offline Widevine license of the asset downloaded from the uri, null if there is no
+     * such asset or its license is missing or expired
+     */
+    @Nullable
+    static public byte[] offlineKeySetIdForUri(Uri uri) {
+        HLSAsset matchingAsset = AssetDownloadController.findAssetByUri(uri);
+        return matchingAsset != null ? matchingAsset.getValidKeySetId() : null;
+    }
+
     static public DataSource.Factory getDataSourceFactory() {
         return AssetDownloadController.getDataSourceFactory();
     }
 
+    static public DataSource.Factory getDataSourceFactory(DataSource.Factory upstreamFactory) {
+        return AssetDownloadController.getDataSourceFactory(upstreamFactory);
+    }
+
+    private void onDownloadRejected(HLSAsset asset, long requiredBytes, long availableBytes) {
+        WritableMap rejection = Arguments.createMap();
+        rejection.putString("id", asset.id);
+        rejection.putString("hlsUrl", asset.hlsUrl);
+        rejection.putDouble("requiredBytes", requiredBytes);
+        rejection.putDouble("availableBytes", Math.max(availableBytes, 0));
+        sendEvent(hlsDownloadRejectedJSEventName, rejection);
+    }
+
     private void onDownloadsChanged() {
-        sendHLSAssetsToJS();
+        if (isDeltaScheduled) {
+            return;
+        }
+        isDeltaScheduled = true;
+        long delayMs = lastDeltaSentMs + downloadEventIntervalMs - SystemClock.elapsedRealtime();
+        handler.postDelayed(sendDeltaRunnable, Math.max(delayMs, 0));
+    }
+
+    // Sends the assets that changed since the last event, with only the fields that moved
+    private void sendHLSAssetsDeltaToJS() {
+        isDeltaScheduled = false;
+        lastDeltaSentMs = SystemClock.elapsedRealtime();
+
+        WritableArray updated = Arguments.createArray();
+        for (HLSAsset asset : AssetDownloadController.assets.values()) {
+            SentAssetState sentState = sentAssets.get(asset.id);
+            if (sentState == null) {
+                updated.pushMap(asset.getDataForJS());
+                sentAssets.put(asset.id, new SentAssetState(asset));
+                continue;
+            }
+            String licenseState = asset.getLicenseStateForJS();
+            boolean statusChanged = sentState.status != asset.status
+                    || sentState.paused != asset.paused
+                    || sentState.priority != asset.priority
+                    || !sentState.licenseState.equals(licenseState);
+            boolean progressChanged = Math.abs(asset.progress - sentState.progress) >= PROGRESS_THRESHOLD
+                    || (asset.progress != sentState.progress && asset.progress >= 1);
+            if (!statusChanged && !progressChanged) {
+                continue;
+            }
+            WritableMap assetDelta = Arguments.createMap();
+            assetDelta.putString("id", asset.id);
+            if (statusChanged) {
+                assetDelta.putString("status", asset.status.name());
+                assetDelta.putBoolean("paused", asset.paused);
+                assetDelta.putInt("priority", asset.priority);
+                assetDelta.putString("licenseState", licenseState);
+                sentState.status = asset.status;
+                sentState.paused = asset.paused;
+                sentState.priority = asset.priority;
+                sentState.licenseState = licenseState;
+            }
+            if (statusChanged || progressChanged) {
+                assetDelta.putDouble("progress", asset.progress);
+                assetDelta.putDouble("size", asset.size);
+                assetDelta.putDouble("throughput", asset.bytesPerSecond);
+                assetDelta.putDouble("eta", asset.etaMs >= 0 ? asset.etaMs / 1000.0 : -1);
+                sentState.progress = asset.progress;
+            }
+            updated.pushMap(assetDelta);
+        }
+
+        WritableArray removed = Arguments.createArray();
+        Iterator<String> sentIds = sentAssets.keySet().iterator();
+        while (sentIds.hasNext()) {
+            String id = sentIds.next();
+            if (!AssetDownloadController.assets.containsKey(id)) {
+                removed.pushString(id);
+                sentIds.remove();
+            }
+        }
+
+        if (updated.size() == 0 && removed.size() == 0) {
+            return;
+        }
+        WritableMap delta = Arguments.createMap();
+        delta.putArray("updated", updated);
+        delta.putArray("removed", removed);
+        sendEvent(hlsDownloadsDeltaJSEventName, delta);
+    }
+
+    private static final class SentAssetState {
+        HLSAsset.HLSAssetStatus status;
+        boolean paused;
+        int priority;
+        float progress;
+        String licenseState;
+
+        SentAssetState(HLSAsset asset) {
+            status = asset.status;
+            paused = asset.paused;
+            priority = asset.priority;
+            progress = asset.progress;
+            licenseState = asset.getLicenseStateForJS();
+        }
     }
 }
@@ -0,0 +1,391 @@
+package com.brentvatne.exoplayer.persistencemanager;
+
+import android.content.ContentValues;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import androidx.media3.common.C;
+import androidx.media3.common.StreamKey;
+import com.brentvatne.exoplayer.VideoTaskExecutor;
+import com.google.android.exoplayer2.database.DatabaseIOException;
+import com.google.android.exoplayer2.database.DatabaseProvider;
+import com.google.android.exoplayer2.database.VersionTable;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SQLite backed store of offline asset metadata, one row per asset.
+ * Writes are coalesced per asset and flushed in a single transaction on a background thread, so
+ * progress updates cost one row write regardless of the size of the library.
+ * The table version is kept in ExoPlayer's {@link VersionTable}, columns added by later versions
+ * are added to existing tables when loading.
+ */
+final class AssetStore {
+    private static final String TAG = "AssetStore";
+
+    private static final String TABLE_NAME = "RNVAssets";
+    private static final int TABLE_VERSION = 5;
+    private static final String COLUMN_ID = "id";
+    private static final String COLUMN_URL = "url";
+    private static final String COLUMN_STATUS = "status";
+    private static final String COLUMN_PROGRESS = "progress";
+    private static final String COLUMN_SIZE = "size";
+    private static final String COLUMN_STREAM_KEYS = "stream_keys";
+    private static final String COLUMN_PRIORITY = "priority";
+    private static final String COLUMN_LAST_PLAYED_MS = "last_played_ms";
+    private static final String COLUMN_ESTIMATED_SIZE = "estimated_size";
+    private static final String COLUMN_CONTENT_TYPE = "content_type";
+    private static final String COLUMN_DRM_LICENSE_URL = "drm_license_url";
+    private static final String COLUMN_DRM_HEADERS = "drm_headers";
+    private static final String COLUMN_KEY_SET_ID = "key_set_id";
+    private static final String COLUMN_LICENSE_EXPIRY_MS = "license_expiry_ms";
+    private static final String[] COLUMNS = {
+            COLUMN_ID,
+            COLUMN_URL,
+            COLUMN_STATUS,
+            COLUMN_PROGRESS,
+            COLUMN_SIZE,
+            COLUMN_STREAM_KEYS,
+            COLUMN_PRIORITY,
+            COLUMN_LAST_PLAYED_MS,
+            COLUMN_ESTIMATED_SIZE,
+            COLUMN_CONTENT_TYPE,
+            COLUMN_DRM_LICENSE_URL,
+            COLUMN_DRM_HEADERS,
+            COLUMN_KEY_SET_ID,
+            COLUMN_LICENSE_EXPIRY_MS
+    };
+    private static final String SQL_CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " ("
+            + COLUMN_ID + " TEXT PRIMARY KEY NOT NULL,"
+            + COLUMN_URL + " TEXT NOT NULL,"
+            + COLUMN_STATUS + " TEXT NOT NULL,"
+            + COLUMN_PROGRESS + " REAL NOT NULL,"
+            + COLUMN_SIZE + " REAL NOT NULL,"
+            + COLUMN_STREAM_KEYS + " TEXT,"
+            + COLUMN_PRIORITY + " INTEGER NOT NULL DEFAULT 0,"
+            + COLUMN_LAST_PLAYED_MS + " INTEGER NOT NULL DEFAULT 0,"
+            + COLUMN_ESTIMATED_SIZE + " INTEGER NOT NULL DEFAULT -1,"
+            + COLUMN_CONTENT_TYPE + " INTEGER NOT NULL DEFAULT " + C.CONTENT_TYPE_HLS + ","
+            + COLUMN_DRM_LICENSE_URL + " TEXT,"
+            + COLUMN_DRM_HEADERS + " TEXT,"
+            + COLUMN_KEY_SET_ID + " BLOB,"
+            + COLUMN_LICENSE_EXPIRY_MS + " INTEGER NOT NULL DEFAULT 0)";
+
+    /**
+     * Column added to the table after its first version. Definitions need a default value, since
+     * existing rows get it.
+     */
+    private static final class AddedColumn {
+        final int version;
+        final String name;
+        final String definition;
+
+        AddedColumn(int version, String name, String definition) {
+            this.version = version;
+            this.name = name;
+            this.definition = definition;
+        }
+    }
+
+    private static final AddedColumn[] ADDED_COLUMNS = {
+            new AddedColumn(2, COLUMN_PRIORITY, "INTEGER NOT NULL DEFAULT 0"),
+            new AddedColumn(3, COLUMN_LAST_PLAYED_MS, "INTEGER NOT NULL DEFAULT 0"),
+            new AddedColumn(3, COLUMN_ESTIMATED_SIZE, "INTEGER NOT NULL DEFAULT -1"),
+            new AddedColumn(4, COLUMN_CONTENT_TYPE, "INTEGER NOT NULL DEFAULT " + C.CONTENT_TYPE_HLS),
+            new AddedColumn(5, COLUMN_DRM_LICENSE_URL, "TEXT"),
+            new AddedColumn(5, COLUMN_DRM_HEADERS, "TEXT"),
+            new AddedColumn(5, COLUMN_KEY_SET_ID, "BLOB"),
+            new AddedColumn(5, COLUMN_LICENSE_EXPIRY_MS, "INTEGER NOT NULL DEFAULT 0"),
+    };
+
+    // Key of the JSON blob assets were stored in before this store existed
+    private static final String LEGACY_SHARED_PREFS_KEY = "downloads";
+
+    private final DatabaseProvider databaseProvider;
+    private final VideoTaskExecutor writeExecutor = new VideoTaskExecutor(
+            TAG, 1, VideoTaskExecutor.UNBOUNDED_QUEUE);
+
+    // Pending writes, guarded by this
+    private final LinkedHashMap<String, ContentValues> pendingUpserts = new LinkedHashMap<>();
+    private final Set<String> pendingDeletes = new HashSet<>();
+    private boolean isFlushScheduled = false;
+
+    AssetStore(DatabaseProvider databaseProvider) {
+        this.databaseProvider = databaseProvider;
+    }
+
+    /**
+     * Reads all assets, migrating the legacy shared preferences blob on first use.
+     *
+     * @throws DatabaseIOException when the table cannot be created, upgraded or read
+     */
+    Map<String, HLSAsset> loadAll(SharedPreferences legacySharedPreferences) throws DatabaseIOException {
+        HashMap<String, HLSAsset> assets = new HashMap<>();
+        try {
+            SQLiteDatabase database = databaseProvider.getWritableDatabase();
+            createOrUpgradeTable(database);
+            migrateFromSharedPreferences(database, legacySharedPreferences);
+            try (Cursor cursor = database.query(TABLE_NAME, COLUMNS, null, null, null, null, null)) {
+                while (cursor.moveToNext()) {
+                    HLSAsset asset = new HLSAsset(cursor.getString(0), cursor.getString(1), cursor.getInt(9));
+                    asset.status = parseStatus(cursor.getString(2));
+                    asset.progress = cursor.getFloat(3);
+                    asset.size = cursor.getFloat(4);
+                    asset.streamKeys = decodeStreamKeys(cursor.getString(5));
+                    asset.priority = cursor.getInt(6);
+                    asset.lastPlayedMs = cursor.getLong(7);
+                    asset.estimatedSize = cursor.getLong(8);
+                    asset.drmLicenseUrl = cursor.getString(10);
+                    asset.drmHeaders = decodeHeaders(cursor.getString(11));
+                    asset.keySetId = cursor.getBlob(12);
+                    asset.licenseExpiryMs = cursor.getLong(13);
+                    assets.put(asset.id, asset);
+                }
+            }
+        } catch (SQLException e) {
+            throw new DatabaseIOException(e);
+        }
+        return assets;
+    }
+
+    private static void createOrUpgradeTable(SQLiteDatabase database) throws DatabaseIOException {
+        int version = VersionTable.getVersion(database, VersionTable.FEATURE_EXTERNAL, TABLE_NAME);
+        if (version == TABLE_VERSION) {
+            return;
+        }
+        database.beginTransactionNonExclusive();
+        try {
+            if (!tableExists(database)) {
+                database.execSQL(SQL_CREATE_TABLE);
+            } else {
+                // Tables created before the version was recorded may have any of the added columns
+                Set<String> existingColumns = getColumnNames(database);
+                for (AddedColumn column : ADDED_COLUMNS) {
+                    if (column.version > version && !existingColumns.contains(column.name)) {
+                        database.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN "
+                                + column.name + " " + column.definition);
+                    }
+                }
+            }
+            VersionTable.setVersion(database, VersionTable.FEATURE_EXTERNAL, TABLE_NAME, TABLE_VERSION);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private static boolean tableExists(SQLiteDatabase database) {
+        try (Cursor cursor = database.query("sqlite_master", new String[] {"name"},
+                "type = 'table' AND name = ?", new String[] {TABLE_NAME}, null, null, null)) {
+            return cursor.getCount() > 0;
+        }
+    }
+
+    private static Set<String> getColumnNames(SQLiteDatabase database) {
+        HashSet<String> columnNames = new HashSet<>();
+        try (Cursor cursor = database.rawQuery("PRAGMA table_info(" + TABLE_NAME + ")", null)) {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                columnNames.add(cursor.getString(nameIndex));
+            }
+        }
+        return columnNames;
+    }
+
+    /**
+     * Runs the given task on the thread writing to the store, after the writes scheduled so far.
+     */
+    void execute(Runnable task) {
+        writeExecutor.execute(task);
+    }
+
+    void save(HLSAsset asset) {
+        ContentValues values = toContentValues(asset);
+        synchronized (this) {
+            pendingDeletes.remove(asset.id);
+            pendingUpserts.put(asset.id, values);
+            scheduleFlush();
+        }
+    }
+
+    void saveAll(Iterable<HLSAsset> assets) {
+        synchronized (this) {
+            for (HLSAsset asset : assets) {
+                pendingDeletes.remove(asset.id);
+                pendingUpserts.put(asset.id, toContentValues(asset));
+            }
+            scheduleFlush();
+        }
+    }
+
+    void delete(String id) {
+        synchronized (this) {
+            pendingUpserts.remove(id);
+            pendingDeletes.add(id);
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (isFlushScheduled) {
+            return;
+        }
+        isFlushScheduled = true;
+        writeExecutor.execute(this::flush);
+    }
+
+    private void flush() {
+        List<ContentValues> upserts;
+        List<String> deletes;
+        synchronized (this) {
+            isFlushScheduled = false;
+            upserts = new ArrayList<>(pendingUpserts.values());
+            deletes = new ArrayList<>(pendingDeletes);
+            pendingUpserts.clear();
+            pendingDeletes.clear();
+        }
+        if (upserts.isEmpty() && deletes.isEmpty()) {
+            return;
+        }
+        try {
+            SQLiteDatabase database = databaseProvider.getWritableDatabase();
+            database.beginTransactionNonExclusive();
+            try {
+                for (ContentValues values : upserts) {
+                    database.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                }
+                for (String id : deletes) {
+                    database.delete(TABLE_NAME, COLUMN_ID + " = ?", new String[] {id});
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } catch (SQLException e) {
+            Log.w(TAG, "Failed to write assets", e);
+        }
+    }
+
+    private void migrateFromSharedPreferences(SQLiteDatabase database, SharedPreferences sharedPreferences) {
+        String json = sharedPreferences.getString(LEGACY_SHARED_PREFS_KEY, "");
+        if (TextUtils.isEmpty(json)) {
+            return;
+        }
+        try {
+            Map<String, HLSAsset> legacyAssets = new Gson().fromJson(
+                    json, new TypeToken<HashMap<String, HLSAsset>>(){}.getType());
+            if (legacyAssets != null) {
+                database.beginTransactionNonExclusive();
+                try {
+                    for (HLSAsset asset : legacyAssets.values()) {
+                        // Gson skips field initializers, and legacy assets were all HLS
+                        asset.contentType = C.CONTENT_TYPE_HLS;
+                        asset.estimatedSize = -1;
+                        database.insertWithOnConflict(
+                                TABLE_NAME, null, toContentValues(asset), SQLiteDatabase.CONFLICT_IGNORE);
+                    }
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+            }
+            Log.d(TAG, "Migrated " + (legacyAssets != null ? legacyAssets.size() : 0) + " assets from shared preferences");
+        } catch (Exception e) {
+            // Keep the blob so that the migration is retried on the next start
+            Log.w(TAG, "Failed to migrate saved assets data", e);
+            return;
+        }
+        sharedPreferences.edit().remove(LEGACY_SHARED_PREFS_KEY).apply();
+    }
+
+    private static ContentValues toContentValues(HLSAsset asset) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_ID, asset.id);
+        values.put(COLUMN_URL, asset.hlsUrl);
+        values.put(COLUMN_STATUS, (asset.status != null ? asset.status : HLSAsset.HLSAssetStatus.IDLE).name());
+        values.put(COLUMN_PROGRESS, asset.progress);
+        values.put(COLUMN_SIZE, asset.size);
+        values.put(COLUMN_STREAM_KEYS, encodeStreamKeys(asset.streamKeys));
+        values.put(COLUMN_PRIORITY, asset.priority);
+        values.put(COLUMN_LAST_PLAYED_MS, asset.lastPlayedMs);
+        values.put(COLUMN_ESTIMATED_SIZE, asset.estimatedSize);
+        values.put(COLUMN_CONTENT_TYPE, asset.contentType);
+        values.put(COLUMN_DRM_LICENSE_URL, asset.drmLicenseUrl);
+        values.put(COLUMN_DRM_HEADERS, asset.drmHeaders != null ? new Gson().toJson(asset.drmHeaders) : null);
+        values.put(COLUMN_KEY_SET_ID, asset.keySetId);
+        values.put(COLUMN_LICENSE_EXPIRY_MS, asset.licenseExpiryMs);
+        return values;
+    }
+
+    @Nullable
+    private static Map<String, String> decodeHeaders(@Nullable String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return new Gson().fromJson(json, new TypeToken<HashMap<String, String>>(){}.getType());
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to read DRM headers", e);
+            return null;
+        }
+    }
+
+    private static HLSAsset.HLSAssetStatus parseStatus(String status) {
+        try {
+            return HLSAsset.HLSAssetStatus.valueOf(status);
+        } catch (IllegalArgumentException e) {
+            return HLSAsset.HLSAssetStatus.IDLE;
+        }
+    }
+
+    // Stream keys are stored as "periodIndex.groupIndex.streamIndex" separated by commas
+    private static String encodeStreamKeys(List<StreamKey> streamKeys) {
+        if (streamKeys == null) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (StreamKey streamKey : streamKeys) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(streamKey.periodIndex)
+                    .append('.')
+                    .append(streamKey.groupIndex)
+                    .append('.')
+                    .append(streamKey.streamIndex);
+        }
+        return builder.toString();
+    }
+
+    private static List<StreamKey> decodeStreamKeys(String encoded) {
+        if (encoded == null) {
+            return null;
+        }
+        ArrayList<StreamKey> streamKeys = new ArrayList<>();
+        if (encoded.isEmpty()) {
+            return streamKeys;
+        }
+        for (String key : encoded.split(",")) {
+            String[] indexes = key.split("\\.");
+            streamKeys.add(new StreamKey(
+                    Integer.parseInt(indexes[0]),
+                    Integer.parseInt(indexes[1]),
+                    Integer.parseInt(indexes[2])));
+        }
+        return streamKeys;
+    }
+}
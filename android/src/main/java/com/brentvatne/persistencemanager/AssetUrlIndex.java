@@ -0,0 +1,131 @@
+package com.brentvatne.exoplayer.persistencemanager;
+
+import android.net.Uri;
+import android.text.TextUtils;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of offline assets by normalized URL, so that playback finds the asset of a source without
+ * scanning the library. Query parameters can be left out of the key, entirely or by name, so that
+ * signed URLs whose tokens change still match.
+ * <p>
+ * Changed on the main thread only, lookups may come from any thread. Several assets can share a
+ * key, the most recently added one is found.
+ */
+final class AssetUrlIndex {
+    // Id sets are never modified once in the map, they are replaced instead
+    private final ConcurrentHashMap<String, Set<String>> assetIdsByKey = new ConcurrentHashMap<>();
+
+    private volatile boolean ignoreQuery = false;
+    private volatile Set<String> ignoredQueryParameters = Collections.emptySet();
+
+    /**
+     * Changes the key policy and rebuilds the index from the given assets.
+     */
+    void setPolicy(boolean ignoreQuery, Collection<String> ignoredQueryParameters,
+                                Collection<HLSAsset> assets) {
+        this.ignoreQuery = ignoreQuery;
+        this.ignoredQueryParameters = Collections.unmodifiableSet(new HashSet<>(ignoredQueryParameters));
+        assetIdsByKey.clear();
+        for (HLSAsset asset : assets) {
+            add(asset);
+        }
+    }
+
+    void add(HLSAsset asset) {
+        String key = getKey(asset.hlsUrl);
+        if (key != null) {
+            assetIdsByKey.compute(key, (k, ids) -> {
+                LinkedHashSet<String> newIds = ids != null ? new LinkedHashSet<>(ids) : new LinkedHashSet<>();
+                newIds.remove(asset.id);
+                newIds.add(asset.id);
+                return Collections.unmodifiableSet(newIds);
+            });
+        }
+    }
+
+    void remove(HLSAsset asset) {
+        String key = getKey(asset.hlsUrl);
+        if (key != null) {
+            // Other assets with the same key stay in the index
+            assetIdsByKey.computeIfPresent(key, (k, ids) -> {
+                if (!ids.contains(asset.id)) {
+                    return ids;
+                }
+                if (ids.size() == 1) {
+                    return null;
+                }
+                LinkedHashSet<String> newIds = new LinkedHashSet<>(ids);
+                newIds.remove(asset.id);
+                return Collections.unmodifiableSet(newIds);
+            });
+        }
+    }
+
+    @Nullable
+    String findAssetId(Uri uri) {
+        String key = getKey(uri);
+        Set<String> ids = key != null ? assetIdsByKey.get(key) : null;
+        if (ids == null) {
+            return null;
+        }
+        String lastId = null;
+        for (String id : ids) {
+            lastId = id;
+        }
+        return lastId;
+    }
+
+    @Nullable
+    private String getKey(@Nullable String url) {
+        return url != null ? getKey(Uri.parse(url)) : null;
+    }
+
+    // Lower cases scheme and host, drops the fragment and default ports, and sorts the query
+    private String getKey(Uri uri) {
+        String scheme = uri.getScheme();
+        if (scheme == null) {
+            return uri.toString();
+        }
+        scheme = scheme.toLowerCase(Locale.US);
+        StringBuilder key = new StringBuilder(scheme).append("://");
+        String host = uri.getHost();
+        if (host != null) {
+            key.append(host.toLowerCase(Locale.US));
+        }
+        int port = uri.getPort();
+        if (port != -1 && !(port == 80 && "http".equals(scheme)) && !(port == 443 && "https".equals(scheme))) {
+            key.append(':').append(port);
+        }
+        String path = uri.getEncodedPath();
+        key.append(path != null && !path.isEmpty() ? path : "/");
+
+        if (!ignoreQuery && uri.getEncodedQuery() != null) {
+            Set<String> ignoredParameters = ignoredQueryParameters;
+            ArrayList<String> parameters = new ArrayList<>();
+            for (String name : uri.getQueryParameterNames()) {
+                if (ignoredParameters.contains(name)) {
+                    continue;
+                }
+                for (String value : uri.getQueryParameters(name)) {
+                    parameters.add(Uri.encode(name) + "=" + Uri.encode(value));
+                }
+            }
+            if (!parameters.isEmpty()) {
+                Collections.sort(parameters);
+                key.append('?').append(TextUtils.join("&", parameters));
+            }
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,72 @@
+package com.brentvatne.exoplayer.persistencemanager;
+
+import androidx.media3.common.C;
+import androidx.media3.common.Format;
+import androidx.media3.common.Tracks;
+import com.google.android.exoplayer2.offline.DownloadHelper;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifest;
+import com.google.android.exoplayer2.source.hls.HlsManifest;
+import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifest;
+
+/**
+ * Estimates the size of a download from the bitrates of the selected tracks and the duration of
+ * the prepared manifest.
+ */
+final class DownloadSizeEstimator {
+
+    private DownloadSizeEstimator() {
+    }
+
+    /**
+     * @param helper Prepared helper with the tracks to download selected
+     * @return Estimated size in bytes, {@link C#LENGTH_UNSET} if unknown
+     */
+    static long estimateBytes(DownloadHelper helper) {
+        // Progressive items have no manifest to estimate from
+        if (helper.getPeriodCount() == 0) {
+            return C.LENGTH_UNSET;
+        }
+        long totalBytes = 0;
+        for (int periodIndex = 0; periodIndex < helper.getPeriodCount(); periodIndex++) {
+            long durationUs = getPeriodDurationUs(helper.getManifest(), periodIndex);
+            if (durationUs == C.TIME_UNSET) {
+                return C.LENGTH_UNSET;
+            }
+            long bitrate = 0;
+            for (Tracks.Group group : helper.getTracks(periodIndex).getGroups()) {
+                for (int i = 0; i < group.length; i++) {
+                    if (group.isTrackSelected(i)) {
+                        bitrate += getBitrate(group.getTrackFormat(i));
+                    }
+                }
+            }
+            if (bitrate == 0) {
+                // None of the selected tracks declares a bitrate
+                return C.LENGTH_UNSET;
+            }
+            totalBytes += bitrate * durationUs / 8 / C.MICROS_PER_SECOND;
+        }
+        return totalBytes;
+    }
+
+    private static long getPeriodDurationUs(Object manifest, int periodIndex) {
+        if (manifest instanceof HlsManifest) {
+            return ((HlsManifest) manifest).mediaPlaylist.durationUs;
+        }
+        if (manifest instanceof DashManifest) {
+            return ((DashManifest) manifest).getPeriodDurationUs(periodIndex);
+        }
+        if (manifest instanceof SsManifest) {
+            return ((SsManifest) manifest).durationUs;
+        }
+        return C.TIME_UNSET;
+    }
+
+    // Prefers the peak bitrate so that the estimate errs on the large side
+    private static int getBitrate(Format format) {
+        if (format.peakBitrate != Format.NO_VALUE) {
+            return format.peakBitrate;
+        }
+        return format.bitrate != Format.NO_VALUE ? format.bitrate : 0;
+    }
+}
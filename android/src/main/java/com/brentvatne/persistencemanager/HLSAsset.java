@@ -1,39 +1,159 @@
 package com.brentvatne.exoplayer.persistencemanager;
 
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.WritableMap;
+import androidx.media3.common.C;
 import androidx.media3.common.MediaItem;
 import androidx.media3.common.StreamKey;
 import androidx.media3.common.MimeTypes;
 
+import com.google.android.exoplayer2.util.Util;
+
 import java.util.List;
+import java.util.Map;
 
+// Despite its name also used for DASH, SmoothStreaming and progressive assets
 public class HLSAsset {
     String id;
     String hlsUrl;
+    @C.ContentType int contentType = C.CONTENT_TYPE_HLS;
     float progress = 0;
     float size = 0;
     HLSAssetStatus status = HLSAssetStatus.IDLE;
     List<StreamKey> streamKeys;
+    int priority = 0;
+    // Wall clock time of the last playback, 0 if never played
+    long lastPlayedMs = 0;
+    // Estimated size of the complete download in bytes, -1 if unknown
+    long estimatedSize = -1;
+    // Widevine license server of protected assets, null for clear content
+    @Nullable String drmLicenseUrl;
+    @Nullable Map<String, String> drmHeaders;
+    // Offline license, null until acquired
+    @Nullable byte[] keySetId;
+    // Wall clock expiry of the offline license, 0 if unknown
+    long licenseExpiryMs = 0;
+    // State of the offline license request, not persisted so that failed requests are retried
+    transient boolean isAcquiringLicense = false;
+    transient boolean hasLicenseFailed = false;
+    // Mirrors the stop reason of the download, not persisted
+    transient boolean paused = false;
+    // Measured while downloading, not persisted
+    transient double bytesPerSecond = 0;
+    transient long etaMs = -1;
 
     HLSAsset(String id, String hlsUrl) {
+        this(id, hlsUrl, C.CONTENT_TYPE_HLS);
+    }
+
+    HLSAsset(String id, String hlsUrl, @C.ContentType int contentType) {
         this.hlsUrl = hlsUrl;
         this.id = id;
+        this.contentType = contentType;
+    }
+
+    /**
+     * @param type "hls", "dash", "ss" or "progressive", inferred from the url when null
+     */
+    static @C.ContentType int inferContentType(String url, @Nullable String type) {
+        if (type != null) {
+            switch (type) {
+                case "hls":
+                    return C.CONTENT_TYPE_HLS;
+                case "dash":
+                    return C.CONTENT_TYPE_DASH;
+                case "ss":
+                    return C.CONTENT_TYPE_SS;
+                case "progressive":
+                    return C.CONTENT_TYPE_OTHER;
+            }
+        }
+        int contentType = Util.inferContentType(Uri.parse(url));
+        return contentType == C.CONTENT_TYPE_RTSP ? C.CONTENT_TYPE_OTHER : contentType;
+    }
+
+    @Nullable
+    private String getMimeType() {
+        switch (contentType) {
+            case C.CONTENT_TYPE_HLS:
+                return MimeTypes.APPLICATION_M3U8;
+            case C.CONTENT_TYPE_DASH:
+                return MimeTypes.APPLICATION_MPD;
+            case C.CONTENT_TYPE_SS:
+                return MimeTypes.APPLICATION_SS;
+            default:
+                return null;
+        }
+    }
+
+    private String getTypeForJS() {
+        switch (contentType) {
+            case C.CONTENT_TYPE_HLS:
+                return "hls";
+            case C.CONTENT_TYPE_DASH:
+                return "dash";
+            case C.CONTENT_TYPE_SS:
+                return "ss";
+            default:
+                return "progressive";
+        }
+    }
+
+    boolean isProgressive() {
+        return contentType == C.CONTENT_TYPE_OTHER;
     }
 
     MediaItem getMediaItemForDownload() {
-        MediaItem item = new MediaItem.Builder()
+        MediaItem.Builder builder = new MediaItem.Builder()
                 .setUri(hlsUrl)
-                .setMimeType(MimeTypes.APPLICATION_M3U8)
-                .build();
+                .setMimeType(getMimeType());
+        if (drmLicenseUrl != null) {
+            // Lets the download helper treat the protected tracks as playable when selecting them
+            MediaItem.DrmConfiguration.Builder drmConfiguration = new MediaItem.DrmConfiguration.Builder(C.WIDEVINE_UUID)
+                    .setLicenseUri(drmLicenseUrl);
+            if (drmHeaders != null) {
+                drmConfiguration.setLicenseRequestHeaders(drmHeaders);
+            }
+            builder.setDrmConfiguration(drmConfiguration.build());
+        }
+        return builder.build();
+    }
 
-        return item;
+    /**
+     * @return The offline license if it has been acquired and has not expired, null otherwise
+     */
+    @Nullable
+    byte[] getValidKeySetId() {
+        if (keySetId == null || (licenseExpiryMs > 0 && licenseExpiryMs <= System.currentTimeMillis())) {
+            return null;
+        }
+        return keySetId;
+    }
+
+    /**
+     * @return "none" for clear content, otherwise "acquiring", "failed", "missing", "expired" or "valid"
+     */
+    String getLicenseStateForJS() {
+        if (drmLicenseUrl == null) {
+            return "none";
+        }
+        if (keySetId != null) {
+            return getValidKeySetId() != null ? "valid" : "expired";
+        }
+        if (isAcquiringLicense) {
+            return "acquiring";
+        }
+        return hasLicenseFailed ? "failed" : "missing";
     }
 
     MediaItem getMediaItem() {
         MediaItem item = new MediaItem.Builder()
                 .setUri(hlsUrl)
-                .setMimeType(MimeTypes.APPLICATION_M3U8)
+                .setMimeType(getMimeType())
                 .setStreamKeys(streamKeys)
                 .build();
 
@@ -45,9 +165,17 @@ public class HLSAsset {
         
         map.putString("id",id);
         map.putString("hlsUrl",hlsUrl);
+        map.putString("type",getTypeForJS());
         map.putString("status",status.name());
         map.putDouble("progress",progress);
         map.putDouble("size",size);
+        map.putInt("priority",priority);
+        map.putBoolean("paused",paused);
+        map.putDouble("estimatedSize",estimatedSize);
+        map.putDouble("lastPlayed",lastPlayedMs);
+        map.putDouble("throughput",bytesPerSecond);
+        map.putDouble("eta",etaMs >= 0 ? etaMs / 1000.0 : -1);
+        map.putString("licenseState",getLicenseStateForJS());
         return map;
     }
 
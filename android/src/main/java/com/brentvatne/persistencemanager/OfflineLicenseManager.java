@@ -0,0 +1,160 @@
+package com.brentvatne.exoplayer.persistencemanager;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.Pair;
+
+import androidx.media3.common.Format;
+import com.brentvatne.exoplayer.VideoTaskExecutor;
+import com.google.android.exoplayer2.drm.DrmSession;
+import com.google.android.exoplayer2.drm.DrmSessionEventListener;
+import com.google.android.exoplayer2.drm.OfflineLicenseHelper;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Acquires, renews and releases the offline Widevine licenses of downloaded assets.
+ * License requests block, so they run one at a time on a background thread. Updated assets are
+ * handed back on the main thread.
+ */
+final class OfflineLicenseManager {
+    private static final String TAG = "OfflineLicenseManager";
+
+    // Licenses are renewed when they expire within this window
+    static final long RENEWAL_WINDOW_MS = 2L * 24 * 60 * 60 * 1000;
+
+    private final VideoTaskExecutor executor = new VideoTaskExecutor(
+            "AssetLicense", 1, VideoTaskExecutor.UNBOUNDED_QUEUE, Thread.MIN_PRIORITY);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Function<Map<String, String>, HttpDataSource.Factory> dataSourceFactoryProvider;
+    private final Consumer<HLSAsset> onLicenseUpdated;
+
+    /**
+     * @param dataSourceFactoryProvider Factory of license requests with the given headers
+     * @param onLicenseUpdated Called on the main thread after the license of an asset or its
+     *                         acquisition state changed
+     */
+    OfflineLicenseManager(Function<Map<String, String>, HttpDataSource.Factory> dataSourceFactoryProvider,
+                          Consumer<HLSAsset> onLicenseUpdated) {
+        this.dataSourceFactoryProvider = dataSourceFactoryProvider;
+        this.onLicenseUpdated = onLicenseUpdated;
+    }
+
+    /**
+     * Must be called on the main thread.
+     *
+     * @param format Format of the asset carrying its DRM init data
+     */
+    void acquire(HLSAsset asset, Format format) {
+        String licenseUrl = asset.drmLicenseUrl;
+        asset.isAcquiringLicense = true;
+        asset.hasLicenseFailed = false;
+        executor.execute(() -> {
+            OfflineLicenseHelper helper = newHelper(asset);
+            try {
+                byte[] keySetId = helper.downloadLicense(format);
+                long expiryMs = getExpiryMs(helper, keySetId);
+                mainHandler.post(() -> {
+                    asset.isAcquiringLicense = false;
+                    // The asset may have been deleted or pointed at another license meanwhile
+                    if (!licenseUrl.equals(asset.drmLicenseUrl)) {
+                        return;
+                    }
+                    asset.keySetId = keySetId;
+                    asset.licenseExpiryMs = expiryMs;
+                    onLicenseUpdated.accept(asset);
+                });
+            } catch (DrmSession.DrmSessionException e) {
+                Log.w(TAG, "Failed to acquire offline license of " + asset.id, e);
+                mainHandler.post(() -> onAcquireFailed(asset));
+            } finally {
+                helper.release();
+            }
+        });
+    }
+
+    /**
+     * Marks the license of the asset as failed, so that it is requested again later.
+     * Must be called on the main thread.
+     */
+    void onAcquireFailed(HLSAsset asset) {
+        asset.isAcquiringLicense = false;
+        asset.hasLicenseFailed = true;
+        onLicenseUpdated.accept(asset);
+    }
+
+    /**
+     * Renews the licenses of the assets that expire within {@link #RENEWAL_WINDOW_MS}.
+     */
+    void renewExpiring(Collection<HLSAsset> assets) {
+        long renewBeforeMs = System.currentTimeMillis() + RENEWAL_WINDOW_MS;
+        for (HLSAsset asset : assets) {
+            if (asset.keySetId != null && asset.licenseExpiryMs > 0 && asset.licenseExpiryMs < renewBeforeMs) {
+                renew(asset);
+            }
+        }
+    }
+
+    private void renew(HLSAsset asset) {
+        byte[] keySetId = asset.keySetId;
+        executor.execute(VideoTaskExecutor.PRIORITY_LOW, () -> {
+            OfflineLicenseHelper helper = newHelper(asset);
+            try {
+                byte[] renewedKeySetId = helper.renewLicense(keySetId);
+                long expiryMs = getExpiryMs(helper, renewedKeySetId);
+                mainHandler.post(() -> {
+                    if (asset.keySetId != keySetId) {
+                        return;
+                    }
+                    asset.keySetId = renewedKeySetId;
+                    asset.licenseExpiryMs = expiryMs;
+                    onLicenseUpdated.accept(asset);
+                });
+            } catch (DrmSession.DrmSessionException e) {
+                // Playback falls back to an online license when one is configured
+                Log.w(TAG, "Failed to renew offline license of " + asset.id, e);
+            } finally {
+                helper.release();
+            }
+        });
+    }
+
+    void release(HLSAsset asset) {
+        byte[] keySetId = asset.keySetId;
+        if (keySetId == null) {
+            return;
+        }
+        executor.execute(VideoTaskExecutor.PRIORITY_LOW, () -> {
+            OfflineLicenseHelper helper = newHelper(asset);
+            try {
+                helper.releaseLicense(keySetId);
+            } catch (DrmSession.DrmSessionException e) {
+                Log.w(TAG, "Failed to release offline license of " + asset.id, e);
+            } finally {
+                helper.release();
+            }
+        });
+    }
+
+    private OfflineLicenseHelper newHelper(HLSAsset asset) {
+        return OfflineLicenseHelper.newWidevineInstance(
+                asset.drmLicenseUrl,
+                dataSourceFactoryProvider.apply(asset.drmHeaders),
+                new DrmSessionEventListener.EventDispatcher());
+    }
+
+    // Wall clock expiry of the license, Long.MAX_VALUE for unlimited licenses
+    private static long getExpiryMs(OfflineLicenseHelper helper, byte[] keySetId) throws DrmSession.DrmSessionException {
+        Pair<Long, Long> remainingSec = helper.getLicenseDurationRemainingSec(keySetId);
+        long licenseRemainingSec = remainingSec.first;
+        if (licenseRemainingSec == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return System.currentTimeMillis() + licenseRemainingSec * 1000;
+    }
+}
@@ -0,0 +1,144 @@
+package com.brentvatne.exoplayer.persistencemanager;
+
+import com.brentvatne.exoplayer.VideoTaskExecutor;
+
+/**
+ * Segment download threads of one offline download. Starts with the maximum number of threads,
+ * then measures the download throughput and adapts the number of threads to it: fewer threads
+ * are tried while the throughput holds up, more while it keeps improving, and the pool goes back
+ * by one thread when a change did not pay off.
+ * Progress is reported on the main thread.
+ */
+final class SegmentDownloadPool {
+    private static final long SAMPLE_WINDOW_MS = 4000;
+    // A sample must be this much faster than the best so far to count as an improvement, and at
+    // most this much slower to count as holding up
+    private static final double IMPROVEMENT_RATIO = 1.1;
+    // Windows to wait after backing off before probing again
+    private static final int HOLD_WINDOWS = 4;
+    private static final double THROUGHPUT_SMOOTHING = 0.3;
+
+    final VideoTaskExecutor executor;
+
+    private int maxThreadCount;
+    private int threadCount;
+    // 1 while probing with more threads, -1 with fewer, 0 otherwise
+    private int probeDirection = 0;
+    private int holdWindowsRemaining = 0;
+    private double bestBytesPerSecond = 0;
+
+    private long windowStartMs = -1;
+    private long windowStartBytes = 0;
+    private double bytesPerSecond = 0;
+    private long etaMs = -1;
+
+    SegmentDownloadPool(String id, int maxThreadCount) {
+        this.maxThreadCount = Math.max(maxThreadCount, 1);
+        // Start as fast as allowed, the pool only gives threads up when they do not help
+        threadCount = this.maxThreadCount;
+        // Segment downloaders enqueue every segment at once, so the queue is unbounded
+        executor = new VideoTaskExecutor(
+                "AssetDownload-" + id, threadCount, VideoTaskExecutor.UNBOUNDED_QUEUE);
+    }
+
+    synchronized void setMaxThreadCount(int maxThreadCount) {
+        this.maxThreadCount = Math.max(maxThreadCount, 1);
+        if (threadCount > this.maxThreadCount) {
+            setThreadCount(this.maxThreadCount);
+        }
+    }
+
+    /**
+     * @param bytesDownloaded Bytes downloaded so far
+     * @param percentDownloaded Percentage downloaded so far, negative if unknown
+     */
+    synchronized void onProgress(long bytesDownloaded, float percentDownloaded, long nowMs) {
+        if (windowStartMs < 0 || bytesDownloaded < windowStartBytes) {
+            windowStartMs = nowMs;
+            windowStartBytes = bytesDownloaded;
+            return;
+        }
+        long elapsedMs = nowMs - windowStartMs;
+        if (elapsedMs < SAMPLE_WINDOW_MS) {
+            return;
+        }
+        double sampleBytesPerSecond = (bytesDownloaded - windowStartBytes) * 1000.0 / elapsedMs;
+        windowStartMs = nowMs;
+        windowStartBytes = bytesDownloaded;
+
+        bytesPerSecond = bytesPerSecond == 0
+                ? sampleBytesPerSecond
+                : bytesPerSecond + THROUGHPUT_SMOOTHING * (sampleBytesPerSecond - bytesPerSecond);
+        if (percentDownloaded > 0 && percentDownloaded < 100 && bytesPerSecond > 0) {
+            double remainingBytes = bytesDownloaded * (100 - percentDownloaded) / percentDownloaded;
+            etaMs = (long) (remainingBytes * 1000 / bytesPerSecond);
+        } else {
+            etaMs = -1;
+        }
+
+        adaptThreadCount(sampleBytesPerSecond);
+    }
+
+    synchronized double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return Estimated time to completion in milliseconds, -1 if unknown
+     */
+    synchronized long getEtaMs() {
+        return etaMs;
+    }
+
+    void release() {
+        executor.shutdown();
+    }
+
+    private void adaptThreadCount(double sampleBytesPerSecond) {
+        if (probeDirection > 0) {
+            if (sampleBytesPerSecond >= bestBytesPerSecond * IMPROVEMENT_RATIO) {
+                bestBytesPerSecond = sampleBytesPerSecond;
+                continueProbing();
+            } else {
+                // The last thread added did not help
+                backOff();
+            }
+        } else if (probeDirection < 0) {
+            // The best sample is kept, so that giving up threads one by one cannot add up to a large loss
+            if (sampleBytesPerSecond * IMPROVEMENT_RATIO >= bestBytesPerSecond) {
+                continueProbing();
+            } else {
+                // The last thread removed was needed
+                backOff();
+            }
+        } else if (holdWindowsRemaining > 0) {
+            holdWindowsRemaining--;
+        } else {
+            // Conditions may have changed since the best sample, start over from the current one
+            bestBytesPerSecond = sampleBytesPerSecond;
+            probeDirection = threadCount < maxThreadCount ? 1 : -1;
+            continueProbing();
+        }
+    }
+
+    private void continueProbing() {
+        int nextThreadCount = threadCount + probeDirection;
+        if (nextThreadCount < 1 || nextThreadCount > maxThreadCount) {
+            probeDirection = 0;
+            holdWindowsRemaining = HOLD_WINDOWS;
+            return;
+        }
+        setThreadCount(nextThreadCount);
+    }
+
+    private void backOff() {
+        setThreadCount(threadCount - probeDirection);
+        probeDirection = 0;
+        holdWindowsRemaining = HOLD_WINDOWS;
+    }
+
+    private void setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, Math.min(threadCount, maxThreadCount));
+        executor.setThreadCount(this.threadCount);
+    }
+}
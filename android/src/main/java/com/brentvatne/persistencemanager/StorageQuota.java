@@ -0,0 +1,96 @@
+package com.brentvatne.exoplayer.persistencemanager;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.offline.Download;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Quota of the offline content and the policy applied when a new download does not fit.
+ * Downloads whose size could not be estimated count with {@link #unknownSizeBytes}.
+ */
+final class StorageQuota {
+
+    enum Policy {
+        /** New downloads that do not fit are refused */
+        REJECT,
+        /** Finished assets are evicted, the ones played longest ago first */
+        EVICT_LEAST_RECENTLY_PLAYED,
+        /** Finished assets are evicted, the ones finished first first */
+        EVICT_OLDEST_FINISHED;
+
+        static Policy fromString(@Nullable String policy) {
+            if ("evictLeastRecentlyPlayed".equals(policy)) {
+                return EVICT_LEAST_RECENTLY_PLAYED;
+            }
+            if ("evictOldestFinished".equals(policy)) {
+                return EVICT_OLDEST_FINISHED;
+            }
+            return REJECT;
+        }
+    }
+
+    static final long DEFAULT_UNKNOWN_SIZE_BYTES = 1024L * 1024 * 1024;
+
+    /** 0 means that only the free space of the device limits downloads */
+    long quotaBytes = 0;
+    Policy policy = Policy.REJECT;
+    /** Left free on the device on top of the quota */
+    long freeSpaceMarginBytes = 0;
+    /** Size assumed for downloads of unknown size, 0 admits them without checking for room */
+    long unknownSizeBytes = DEFAULT_UNKNOWN_SIZE_BYTES;
+
+    /**
+     * @param estimatedBytes Estimated size of a download, negative if unknown
+     * @return Bytes the download is expected to need
+     */
+    long getRequiredBytes(long estimatedBytes) {
+        return estimatedBytes >= 0 ? estimatedBytes : unknownSizeBytes;
+    }
+
+    /**
+     * @param requiredBytes Bytes needed by the new download
+     * @param availableBytes Bytes that can be written without eviction, may be negative
+     * @param finishedAssets Candidates for eviction
+     * @param downloads Downloads by asset id, for their completion time
+     * @return Assets to evict for the download to fit, empty if it fits already, null if it cannot fit
+     */
+    @Nullable
+    List<HLSAsset> selectEvictions(long requiredBytes, long availableBytes,
+                                   Collection<HLSAsset> finishedAssets, Map<String, Download> downloads) {
+        if (requiredBytes <= availableBytes) {
+            return Collections.emptyList();
+        }
+        if (policy == Policy.REJECT) {
+            return null;
+        }
+        ArrayList<HLSAsset> candidates = new ArrayList<>(finishedAssets);
+        Comparator<HLSAsset> order = policy == Policy.EVICT_LEAST_RECENTLY_PLAYED
+                // Never played assets count as played when they finished
+                ? Comparator.comparingLong(asset -> Math.max(asset.lastPlayedMs, getFinishedMs(asset, downloads)))
+                : Comparator.comparingLong(asset -> getFinishedMs(asset, downloads));
+        Collections.sort(candidates, order);
+
+        ArrayList<HLSAsset> evictions = new ArrayList<>();
+        long freedBytes = 0;
+        for (HLSAsset asset : candidates) {
+            if (requiredBytes <= availableBytes + freedBytes) {
+                break;
+            }
+            evictions.add(asset);
+            freedBytes += (long) asset.size;
+        }
+        return requiredBytes <= availableBytes + freedBytes ? evictions : null;
+    }
+
+    private static long getFinishedMs(HLSAsset asset, Map<String, Download> downloads) {
+        Download download = downloads.get(asset.id);
+        return download != null ? download.updateTimeMs : 0;
+    }
+}
@@ -31,8 +31,10 @@ public class ReactVideoPackage implements ReactPackage {
     public List<NativeModule> createNativeModules(ReactApplicationContext reactContext) {
         List<NativeModule> modules = new ArrayList<>();
 
-        modules.add(new VideoDecoderPropertiesModule(reactContext));
-        modules.add(new AssetPersistenceManager(reactContext));
+        modules.add(new VideoDecoderPropertiesModule(reactContext, getConfig(reactContext)));
+        modules.add(new AssetPersistenceManager(reactContext, getConfig(reactContext)));
+        modules.add(new VideoPreloaderModule(reactContext, getConfig(reactContext)));
+        modules.add(new VideoPlayerPoolModule(reactContext));
 
         return modules;
     }
@@ -45,9 +47,14 @@ public class ReactVideoPackage implements ReactPackage {
 
     @Override
     public List<ViewManager> createViewManagers(ReactApplicationContext reactContext) {
+        return Collections.singletonList(new ReactExoplayerViewManager(getConfig(reactContext)));
+    }
+
+    // Modules and view managers share the config so they agree on the streaming cache
+    private ReactExoplayerConfig getConfig(ReactApplicationContext reactContext) {
         if (config == null) {
             config = new DefaultReactExoplayerConfig(reactContext);
         }
-        return Collections.singletonList(new ReactExoplayerViewManager(config));
+        return config;
     }
 }
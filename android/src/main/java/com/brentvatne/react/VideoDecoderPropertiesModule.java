@@ -2,25 +2,41 @@ package com.brentvatne.react;
 
 import android.annotation.SuppressLint;
 import android.media.MediaCodecList;
-import android.media.MediaDrm;
 import android.media.MediaFormat;
-import android.media.UnsupportedSchemeException;
 import android.os.Build;
+import android.util.Base64;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 
+import com.brentvatne.exoplayer.DrmLicenseCache;
+import com.brentvatne.exoplayer.ReactExoplayerConfig;
+import com.brentvatne.exoplayer.ReactExoplayerViewManager;
+import com.brentvatne.exoplayer.WidevineCapabilities;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableMap;
+import com.google.android.exoplayer2.util.Util;
 
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
 
 @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
 public class VideoDecoderPropertiesModule extends ReactContextBaseJavaModule {
 
+    private static final String PROP_HEADERS = "headers";
+    private static final String PROP_TYPE = "type";
+    private static final String PROP_DRM = "drm";
+    private static final String PROP_DRM_TYPE = "type";
+    private static final String PROP_DRM_LICENSESERVER = "licenseServer";
+    private static final String PROP_DRM_HEADERS = "headers";
+    private static final String PROP_DRM_PSSH = "pssh";
+
     ReactApplicationContext reactContext;
+    private final ReactExoplayerConfig config;
 
     @NonNull
     @Override
@@ -28,52 +44,64 @@ public class VideoDecoderPropertiesModule extends ReactContextBaseJavaModule {
         return "VideoDecoderProperties";
     }
 
-    @SuppressLint("ObsoleteSdkInt")
+    /**
+     * Resolves with the Widevine level from the probe started at init, without opening a MediaDrm.
+     */
     @ReactMethod
     public void getWidevineLevel(Promise p) {
-        int widevineLevel = 0;
+        WidevineCapabilities.whenProbed(reactContext, capabilities -> p.resolve(capabilities.getLevel()));
+    }
 
-        if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.JELLY_BEAN_MR2) {
-            p.resolve(widevineLevel);
-            return;
-        }
-        final UUID WIDEVINE_UUID = new UUID(0xEDEF8BA979D64ACEL, 0xA3C827DCD51D21EDL);
-        final String WIDEVINE_SECURITY_LEVEL_1 = "L1";
-        final String WIDEVINE_SECURITY_LEVEL_2 = "L2";
-        final String WIDEVINE_SECURITY_LEVEL_3 = "L3";
-        final String SECURITY_LEVEL_PROPERTY = "securityLevel";
+    @ReactMethod
+    public void getWidevineCapabilities(Promise p) {
+        WidevineCapabilities.whenProbed(reactContext, capabilities -> p.resolve(capabilities.getDataForJS()));
+    }
 
-        String securityProperty = null;
-        try {
-            MediaDrm mediaDrm = new MediaDrm(WIDEVINE_UUID);
-            securityProperty = mediaDrm.getPropertyString(SECURITY_LEVEL_PROPERTY);
-        } catch (UnsupportedSchemeException e) {
-            e.printStackTrace();
-        }
-        if (securityProperty == null) {
-            p.resolve(widevineLevel);
+    /**
+     * Fetches the DRM license of an upcoming source so that its playback starts without a
+     * license request. Resolves with the expiry of the license in ms since epoch, or -1 when it
+     * does not expire.
+     */
+    @ReactMethod
+    public void prefetchDrmLicense(String uri, ReadableMap options, Promise promise) {
+        ReadableMap drm = options.hasKey(PROP_DRM) ? options.getMap(PROP_DRM) : null;
+        String drmType = drm != null && drm.hasKey(PROP_DRM_TYPE) ? drm.getString(PROP_DRM_TYPE) : null;
+        String licenseServer = drm != null && drm.hasKey(PROP_DRM_LICENSESERVER) ? drm.getString(PROP_DRM_LICENSESERVER) : null;
+        UUID uuid = drmType != null ? Util.getDrmUuid(drmType) : null;
+        if (uuid == null || licenseServer == null) {
+            promise.reject("INVALID_DRM", "A supported drm type and a license server are required");
             return;
         }
-
-        switch (securityProperty) {
-            case WIDEVINE_SECURITY_LEVEL_1: {
-                widevineLevel = 1;
-                break;
-            }
-            case WIDEVINE_SECURITY_LEVEL_2: {
-                widevineLevel = 2;
-                break;
-            }
-            case WIDEVINE_SECURITY_LEVEL_3: {
-                widevineLevel = 3;
-                break;
-            }
-            default: {
-                // widevineLevel 0
-                break;
+        Map<String, String> licenseHeaders = drm.hasKey(PROP_DRM_HEADERS)
+                ? ReactExoplayerViewManager.toStringMap(drm.getMap(PROP_DRM_HEADERS)) : null;
+        byte[] pssh = null;
+        if (drm.hasKey(PROP_DRM_PSSH)) {
+            try {
+                pssh = Base64.decode(drm.getString(PROP_DRM_PSSH), Base64.DEFAULT);
+            } catch (IllegalArgumentException e) {
+                promise.reject("INVALID_DRM", "pssh is not valid base64", e);
+                return;
             }
         }
-        p.resolve(widevineLevel);
+        String type = options.hasKey(PROP_TYPE) ? options.getString(PROP_TYPE) : null;
+        Map<String, String> headers = options.hasKey(PROP_HEADERS)
+                ? ReactExoplayerViewManager.toStringMap(options.getMap(PROP_HEADERS)) : null;
+        try {
+            DrmLicenseCache.prefetch(reactContext, config, uri, type, uuid, licenseServer, licenseHeaders,
+                    pssh, headers, new DrmLicenseCache.PrefetchCallback() {
+                        @Override
+                        public void onPrefetched(long expiresAtMs) {
+                            promise.resolve(expiresAtMs == Long.MAX_VALUE ? -1 : (double) expiresAtMs);
+                        }
+
+                        @Override
+                        public void onError(Exception e) {
+                            promise.reject("PREFETCH_FAILED", e);
+                        }
+                    });
+        } catch (RejectedExecutionException e) {
+            promise.reject("PREFETCH_QUEUE_FULL", "Too many pending license prefetches", e);
+        }
     }
 
     @SuppressLint("ObsoleteSdkInt")
@@ -99,9 +127,11 @@ public class VideoDecoderPropertiesModule extends ReactContextBaseJavaModule {
         isCodecSupported("video/hevc", 1920, 1080, p);
     }
 
-    public VideoDecoderPropertiesModule(ReactApplicationContext reactContext) {
+    public VideoDecoderPropertiesModule(ReactApplicationContext reactContext, ReactExoplayerConfig config) {
         super(reactContext);
         this.reactContext = reactContext;
+        this.config = config;
+        WidevineCapabilities.probeAsync(reactContext);
     }
 
 }
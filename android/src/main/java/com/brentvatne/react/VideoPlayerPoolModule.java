@@ -0,0 +1,43 @@
+package com.brentvatne.react;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import com.brentvatne.exoplayer.ExoPlayerPool;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+
+public class VideoPlayerPoolModule extends ReactContextBaseJavaModule {
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public VideoPlayerPoolModule(ReactApplicationContext reactContext) {
+        super(reactContext);
+    }
+
+    // Called from invalidate() on newer React Native versions. Views only return their own lease,
+    // the idle players go with the React context. Players are released on the thread they were built on
+    @Override
+    public void onCatalystInstanceDestroy() {
+        mainHandler.post(ExoPlayerPool::clear);
+        super.onCatalystInstanceDestroy();
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return "VideoPlayerPool";
+    }
+
+    /**
+     * Resolves with the hits, misses and evictions of the player pool and its idle player count.
+     */
+    @ReactMethod
+    public void getStats(Promise promise) {
+        promise.resolve(ExoPlayerPool.getStatsForJS());
+    }
+}
@@ -0,0 +1,122 @@
+package com.brentvatne.react;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import android.net.Uri;
+
+import com.brentvatne.ReactBridgeUtils;
+import com.brentvatne.exoplayer.DataSourceUtil;
+import com.brentvatne.exoplayer.ReactExoplayerConfig;
+import com.brentvatne.exoplayer.ReactExoplayerViewManager;
+import com.brentvatne.exoplayer.VideoPreloader;
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+public class VideoPreloaderModule extends ReactContextBaseJavaModule {
+
+    private static final String PROP_DURATION_MS = "durationMs";
+    private static final String PROP_BYTES = "bytes";
+    private static final String PROP_HEADERS = "headers";
+    private static final String PROP_TYPE = "type";
+    private static final String PRELOAD_STATS_JS_EVENT_NAME = "videoPreloadStats";
+
+    ReactApplicationContext reactContext;
+    private final ReactExoplayerConfig config;
+    private final Consumer<VideoPreloader.PreloadItem> preloadListener = this::onPreloadChanged;
+
+    public VideoPreloaderModule(ReactApplicationContext reactContext, ReactExoplayerConfig config) {
+        super(reactContext);
+        this.reactContext = reactContext;
+        this.config = config;
+        VideoPreloader.addListener(preloadListener);
+    }
+
+    // Called from invalidate() on newer React Native versions, the preloader outlives the bridge
+    @Override
+    public void onCatalystInstanceDestroy() {
+        VideoPreloader.removeListener(preloadListener);
+        super.onCatalystInstanceDestroy();
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return "VideoPreloader";
+    }
+
+    @ReactMethod
+    public void addListener(String eventName) {
+        // silence RN missing listener methods warnings
+    }
+
+    @ReactMethod
+    public void removeListeners(Integer count) {
+        // silence RN missing listener methods warnings
+    }
+
+    @ReactMethod
+    public void preload(String uri, @Nullable ReadableMap options, Promise promise) {
+        long durationMs = (long) ReactBridgeUtils.safeGetDouble(options, PROP_DURATION_MS,
+                VideoPreloader.DEFAULT_PRELOAD_DURATION_MS);
+        long bytes = (long) ReactBridgeUtils.safeGetDouble(options, PROP_BYTES,
+                VideoPreloader.DEFAULT_PRELOAD_BYTES);
+        String type = options != null && options.hasKey(PROP_TYPE) ? options.getString(PROP_TYPE) : null;
+        Map<String, String> headers = options != null && options.hasKey(PROP_HEADERS)
+                ? ReactExoplayerViewManager.toStringMap(options.getMap(PROP_HEADERS)) : null;
+        try {
+            VideoPreloader.PreloadItem item = VideoPreloader.preload(reactContext, config, uri, type,
+                    durationMs, bytes, headers);
+            promise.resolve(item.getDataForJS());
+        } catch (RejectedExecutionException e) {
+            promise.reject("PRELOAD_QUEUE_FULL", "Too many pending preloads", e);
+        } catch (IllegalStateException e) {
+            promise.reject("PRELOAD_DISABLED", e.getMessage(), e);
+        }
+    }
+
+    @ReactMethod
+    public void cancel(String uri) {
+        VideoPreloader.cancel(uri);
+    }
+
+    @ReactMethod
+    public void prewarmConnections(ReadableArray uris) {
+        List<Uri> parsedUris = new ArrayList<>();
+        for (int i = 0; i < uris.size(); i++) {
+            String uri = uris.getString(i);
+            if (uri != null) {
+                parsedUris.add(Uri.parse(uri));
+            }
+        }
+        DataSourceUtil.prewarmConnections(reactContext, config.getMediaHttpClient(), parsedUris);
+    }
+
+    @ReactMethod
+    public void getPreloadStats(Promise promise) {
+        WritableArray stats = Arguments.createArray();
+        for (VideoPreloader.PreloadItem item : VideoPreloader.getItems()) {
+            stats.pushMap(item.getDataForJS());
+        }
+        promise.resolve(stats);
+    }
+
+    private void onPreloadChanged(VideoPreloader.PreloadItem item) {
+        reactContext
+                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                .emit(PRELOAD_STATS_JS_EVENT_NAME, item.getDataForJS());
+    }
+}